@@ -1,63 +1,109 @@
 package com.drive.ahv;
 
 import java.io.IOException;
-import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.demonio.Demonio;
+import com.drive.ahv.demonio.ServidorDeControl;
+import com.drive.ahv.log.Registro;
 import com.drive.ahv.sync.Sincronizacion;
-import com.drive.ahv.sync.MonitorDeArchivos;
 
 /**
  * Clase principal de la aplicación de sincronización avanzada.
- * Inicia la sincronización inicial, el monitor de archivos y maneja la entrada del usuario.
+ * Inicia la sincronización, el monitor de archivos y maneja la entrada del usuario.
+ * Con --demonio (o demonio.activo=true) se ejecuta sin consola y se controla por el socket de control;
+ * con --control "orden" ... envía órdenes a un demonio en marcha.
  */
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && "--control".equals(args[0])) {
+            control(Arrays.asList(args).subList(1, args.length));
+            return;
+        }
+        boolean modoDemonio = Arrays.asList(args).contains("--demonio")
+                || Boolean.parseBoolean(Configuracion.getConfig().getProperty("demonio.activo", "false"));
         try {
             Sincronizacion servicioSincronizacion = new Sincronizacion(); // Crea una instancia del servicio de sincronización avanzada
-            servicioSincronizacion.initialSynchronize(); // Realiza la sincronización inicial al inicio de la aplicación
-
-            MonitorDeArchivos monitor = new MonitorDeArchivos(servicioSincronizacion); // Crea una instancia del monitor de archivos, pasándole el servicio de sincronización
-            Thread hiloMonitor = new Thread(monitor); // Crea un nuevo hilo para ejecutar el monitor de archivos en segundo plano
-            hiloMonitor.start(); // Inicia el hilo del monitor
-
-            System.out.println("Aplicación iniciada. Monitorización de archivos activa en segundo plano.");
-            System.out.println("Escriba 'stop' para terminar la aplicación.");
-
-            Scanner scanner = new Scanner(System.in);
-            while (true) {
-                String command = scanner.nextLine();
-                if ("stop".equalsIgnoreCase(command)) {
-                    monitor.stopMonitor(); // Detiene el monitor de archivos de forma controlada
-                    hiloMonitor.interrupt(); // Interrumpe el hilo del monitor para asegurar su finalización
-                    Sincronizacion.stop(); // Detiene el servicio FTP
-                    break;
-
-                } else if ("descargar".equalsIgnoreCase(command)) {
-                    System.out.print("Ingrese el nombre del archivo encriptado a descargar (ej., prueba.txt.enc): ");
-                    String NombreArchivoEncriptadoADescargar = scanner.nextLine();
-                    if (servicioSincronizacion.downloadFileFromFTP(NombreArchivoEncriptadoADescargar)) {
-                        Configuracion config = Configuracion.getConfig(); // Obtiene la instancia de Configuration para acceder a las propiedades
-                        String rutaFicheroDescargado = Paths
-                                .get(config.getProperty("local.downloadDir"), NombreArchivoEncriptadoADescargar).toString(); // Construye la ruta completa del archivo descargado
-                        String rutaFicheroDesencriptada = Paths.get(config.getProperty("local.downloadDir"),
-                                NombreArchivoEncriptadoADescargar.substring(0, NombreArchivoEncriptadoADescargar.length() - 4))
-                                .toString(); // Construye la ruta para el archivo descifrado (quitando la extensión .enc)
-                        if (servicioSincronizacion.decryptAndSaveFile(rutaFicheroDescargado, rutaFicheroDesencriptada)) {
-                            System.out.println("Archivo descargado y descifrado exitosamente en: " + rutaFicheroDesencriptada);
-                        } else {
-                            System.err.println("Fallo al descifrar el archivo descargado.");
-                        }
-                    } else {
-                        System.err.println("Fallo al descargar el archivo desde FTP.");
-                    }
+            Demonio demonio = new Demonio(servicioSincronizacion);
+            // Antes de arrancar: si ya hay otro demonio en marcha sobre los mismos directorios, no se toca nada
+            ServidorDeControl control = new ServidorDeControl(demonio);
+            try {
+                // SIGTERM o Ctrl+C también paran de forma ordenada, incluso durante la sincronización inicial;
+                // el registro se detiene después, para no perder los eventos de la parada
+                Registro.antesDeApagar(demonio::detener);
+
+                // El socket de control atiende ya durante la sincronización inicial (estado, pausar, detener...)
+                Thread hiloControl = new Thread(control, "control");
+                hiloControl.setDaemon(true);
+                hiloControl.start();
+
+                demonio.iniciar(); // Retoma el trabajo pendiente (o hace la sincronización inicial) y arranca los hilos en segundo plano
+
+                if (modoDemonio) {
+                    demonio.esperar(); // Hasta la orden "detener" o la señal de parada
+                } else {
+                    consola(demonio, servicioSincronizacion);
                 }
+            } finally {
+                control.detener();
             }
-            scanner.close();
             System.out.println("Aplicación terminada.");
 
         } catch (IOException e) {
             System.err.println("Error al iniciar la aplicación: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Modo interactivo: lee órdenes de la consola hasta "stop".
+     * Si la entrada se cierra (por ejemplo, con nohup), sigue como demonio hasta la orden "detener" o la señal de parada.
+     * @throws InterruptedException Si el hilo es interrumpido mientras espera la parada.
+     */
+    private static void consola(Demonio demonio, Sincronizacion servicioSincronizacion) throws InterruptedException {
+        System.out.println("Aplicación iniciada. Monitorización de archivos activa en segundo plano.");
+        System.out.println("Escriba 'stop' para terminar la aplicación.");
+
+        Scanner scanner = new Scanner(System.in);
+        boolean parado = false;
+        while (!parado && scanner.hasNextLine()) {
+            String command = scanner.nextLine();
+            if ("stop".equalsIgnoreCase(command)) {
+                demonio.detener(); // Espera a las subidas en curso y guarda lo pendiente
+                parado = true;
+
+            } else if ("descargar".equalsIgnoreCase(command)) {
+                System.out.print("Ingrese el nombre del archivo encriptado a descargar (ej., prueba.txt.enc): ");
+                Path rutaFicheroDesencriptada = servicioSincronizacion.restoreFile(scanner.nextLine());
+                if (rutaFicheroDesencriptada != null) {
+                    System.out.println("Archivo descargado y descifrado exitosamente en: " + rutaFicheroDesencriptada);
+                } else {
+                    System.err.println("Fallo al descargar o descifrar el archivo.");
+                }
+            }
+        }
+        scanner.close();
+        if (!parado) {
+            System.out.println("Entrada cerrada: el servicio sigue en marcha y se controla por el socket de control.");
+            demonio.esperar(); // Sin esto se cerraría el socket de control con la sincronización todavía activa
+        }
+    }
+
+    /**
+     * Envía órdenes al socket de control de un demonio en marcha.
+     */
+    private static void control(List<String> ordenes) {
+        try {
+            if (!ServidorDeControl.enviar(ordenes.isEmpty() ? List.of("estado") : ordenes)) {
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            System.err.println("No se pudo conectar con el demonio en " + ServidorDeControl.rutaSocket() + ": " + e.getMessage());
+            System.exit(2);
         }
     }
 }
\ No newline at end of file
@@ -45,15 +45,26 @@ public class Configuracion {
 
     /**
      * Obtiene una propiedad de configuración por su clave.
+     * Una propiedad del sistema con la misma clave (-Dclave=valor) tiene prioridad sobre config.properties.
      * @param key La clave de la propiedad a obtener.
      * @return El valor de la propiedad, o null si la clave no se encuentra.
      */
     public String getProperty(String key) {
-        String value = propiedades.getProperty(key); // Intenta obtener la propiedad por su clave
+        String value = System.getProperty(key, propiedades.getProperty(key)); // Intenta obtener la propiedad por su clave
         if (value == null) {
           
             System.err.println("Propiedad '" + key + "'no encontrada en config.properties");
         }
         return value;
     }
+
+    /**
+     * Obtiene una propiedad de configuración opcional por su clave.
+     * @param key La clave de la propiedad a obtener.
+     * @param defecto El valor a devolver si la clave no se encuentra.
+     * @return El valor de la propiedad, o el valor por defecto si la clave no se encuentra.
+     */
+    public String getProperty(String key, String defecto) {
+        return System.getProperty(key, propiedades.getProperty(key, defecto)); // Las propiedades del sistema tienen prioridad
+    }
 }
\ No newline at end of file
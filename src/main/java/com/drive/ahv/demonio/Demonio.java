@@ -0,0 +1,266 @@
+package com.drive.ahv.demonio;
+
+import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
+import com.drive.ahv.sync.DepuradorRemoto;
+import com.drive.ahv.sync.DetectorDeCambios;
+import com.drive.ahv.sync.Sincronizacion;
+import com.drive.ahv.sync.SondeoRemoto;
+import com.drive.ahv.utils.AjusteDeTransferencias;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servicio de sincronización en segundo plano: arranca la sincronización (retomando el trabajo pendiente de la
+ * parada anterior), los hilos del detector de cambios, el sondeo remoto y el depurador, y ofrece las operaciones
+ * que se piden por el socket de control (ServidorDeControl) o desde la consola.
+ * La parada es ordenada: se dejan de detectar cambios, se espera a las transferencias en curso hasta
+ * demonio.plazoParadaMs y lo que quede pendiente se guarda para el siguiente arranque.
+ * Las operaciones que fallan (por ejemplo, con el servidor caído) se reintentan cada demonio.reintentoMs.
+ */
+public class Demonio {
+
+    private static final Configuracion config = Configuracion.getConfig(); // Instancia de Configuration
+    private static final String LOCAL_DIR = config.getProperty("local.dir"); // Directorio local sincronizado
+    private static final Registro log = Registro.de(Demonio.class); // Registro de eventos
+    private static final long MARGEN_PARADA_MS = 15_000; // Además del plazo: subir el paquete en curso y guardar lo pendiente
+
+    private final Sincronizacion sincronizacion; // Servicio de sincronización
+    private final long plazoParadaMs; // Espera máxima a las transferencias en curso al parar
+    private final long reintentoMs; // Intervalo entre reintentos de las operaciones pendientes
+    private final ExecutorService trabajos; // Trabajos lanzados por comandos (restauraciones, pendientes)
+    private final CountDownLatch parada = new CountDownLatch(1); // Se libera al terminar la parada ordenada
+    private DetectorDeCambios monitor;
+    private Thread hiloMonitor;
+    private SondeoRemoto sondeoRemoto;
+    private DepuradorRemoto depurador;
+    private boolean detenido;
+
+    /**
+     * Constructor de Demonio.
+     * Lee demonio.plazoParadaMs y demonio.reintentoMs de la configuración.
+     * @param sincronizacion Instancia de Sincronizacion que realiza las operaciones.
+     */
+    public Demonio(Sincronizacion sincronizacion) {
+        this.sincronizacion = sincronizacion;
+        this.plazoParadaMs = Long.parseLong(config.getProperty("demonio.plazoParadaMs", "30000"));
+        this.reintentoMs = Long.parseLong(config.getProperty("demonio.reintentoMs", "60000"));
+        this.trabajos = Executors.newFixedThreadPool(AjusteDeTransferencias.getAjuste().getConexionesMaximas(), r -> {
+            Thread hilo = new Thread(r, "demonio-trabajo");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    /**
+     * Arranca la sincronización y los hilos en segundo plano.
+     * @throws IOException Si ocurre un error al arrancar la sincronización o el detector de cambios.
+     */
+    public void iniciar() throws IOException {
+        sincronizacion.startup(); // Retoma lo pendiente o hace la sincronización inicial
+        synchronized (this) {
+            if (detenido) {
+                return; // Parada pedida durante el arranque: no se lanzan los hilos
+            }
+        }
+
+        monitor = DetectorDeCambios.crear(sincronizacion); // WatchService o sondeo, según monitor.modo
+        hiloMonitor = new Thread(monitor, "detector-cambios");
+        hiloMonitor.start();
+
+        if (Boolean.parseBoolean(config.getProperty("remoto.activo", "false"))) {
+            sondeoRemoto = new SondeoRemoto(sincronizacion); // Aplica en local los cambios hechos en el servidor por otros equipos
+            iniciarHilo(sondeoRemoto, "sondeo-remoto");
+        }
+        if (Boolean.parseBoolean(config.getProperty("verificacion.depurador", "true"))) {
+            depurador = new DepuradorRemoto(); // Verifica periódicamente los objetos remotos contra el manifiesto
+            iniciarHilo(depurador, "depurador-remoto");
+        }
+        iniciarHilo(this::reintentarPendientes, "reintento-pendientes");
+        log.info("demonio.inicio", "Servicio de sincronización iniciado");
+    }
+
+    /**
+     * Bloquea hasta que termina la parada ordenada.
+     * @throws InterruptedException Si el hilo es interrumpido mientras espera.
+     */
+    public void esperar() throws InterruptedException {
+        parada.await();
+    }
+
+    /**
+     * Parada ordenada. Se puede llamar varias veces (por ejemplo, desde el comando y desde el gancho de apagado):
+     * las llamadas posteriores esperan a que termine la primera (hasta demonio.plazoParadaMs más un margen), para que
+     * el gancho de apagado no detenga la JVM a mitad de la parada sin haber guardado lo pendiente.
+     */
+    public void detener() {
+        boolean yaIniciada;
+        synchronized (this) {
+            yaIniciada = detenido;
+            detenido = true;
+        }
+        if (yaIniciada) {
+            try {
+                parada.await(plazoParadaMs + MARGEN_PARADA_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        log.info("demonio.parada", "Parada ordenada: esperando a las transferencias en curso (máximo {} ms)", plazoParadaMs);
+        sincronizacion.beginShutdown(); // Antes de dejar de detectar: lo que cambie desde aquí se revisa al arrancar
+        try {
+            if (monitor != null) {
+                monitor.stopMonitor(); // No se detectan más cambios locales
+            }
+        } catch (IOException e) {
+            log.warn("demonio.parada.error", "Error al detener el detector de cambios: {}", e.getMessage());
+        }
+        if (sondeoRemoto != null) {
+            sondeoRemoto.detener();
+        }
+        if (depurador != null) {
+            depurador.detener();
+        }
+        trabajos.shutdown();
+        boolean drenado = sincronizacion.shutdown(plazoParadaMs);
+        if (hiloMonitor != null) {
+            hiloMonitor.interrupt(); // El detector por sondeo puede estar esperando su siguiente pasada
+        }
+        log.info("demonio.fin", "Servicio de sincronización detenido{}", drenado ? "" : " (plazo agotado; se retomará en el siguiente arranque)");
+        Registro.vaciar(2_000);
+        parada.countDown();
+    }
+
+    /**
+     * Sincroniza archivos concretos sin esperar al detector de cambios.
+     * Las rutas relativas se resuelven en local.dir; un directorio sincroniza todos sus archivos.
+     * @param rutas Rutas de archivos o directorios dentro de local.dir.
+     * @return Número de archivos procesados.
+     * @throws IOException Si alguna ruta está fuera de local.dir, no se puede listar, o no existe ni en local ni en el servidor.
+     */
+    public int sincronizar(List<String> rutas) throws IOException {
+        Path directorio = Paths.get(LOCAL_DIR).toAbsolutePath().normalize();
+        List<Path> archivos = new ArrayList<>();
+        for (String ruta : rutas) {
+            Path absoluta = directorio.resolve(ruta).toAbsolutePath().normalize();
+            if (absoluta.equals(directorio)) {
+                try (var contenido = Files.list(directorio)) {
+                    contenido.filter(Files::isRegularFile).forEach(archivos::add);
+                }
+            } else if (directorio.equals(absoluta.getParent())) {
+                if (!Files.isRegularFile(absoluta) && !sincronizacion.isKnownRemotely(absoluta.getFileName().toString())) {
+                    // Solo se propaga el borrado de lo que está en el servidor; un directorio o un nombre mal escrito no se borra
+                    throw new IOException((Files.exists(absoluta) ? "no es un archivo: " : "no existe: ") + ruta);
+                }
+                archivos.add(absoluta);
+            } else {
+                throw new IOException("La ruta no está en " + LOCAL_DIR + ": " + ruta); // La sincronización no recorre subdirectorios
+            }
+        }
+        for (Path archivo : archivos) {
+            if (Files.isRegularFile(archivo)) {
+                sincronizacion.synchronizeFile(archivo.toFile(), "modified");
+            } else {
+                sincronizacion.deleteRemoteFile(archivo.getFileName().toString()); // Ya no existe en local
+            }
+        }
+        return archivos.size();
+    }
+
+    /**
+     * Restaura varios archivos del servidor en el directorio de descargas, con varias descargas a la vez.
+     * @param nombres Nombres de los archivos, con o sin la extensión .enc.
+     * @return Los nombres que no se pudieron restaurar.
+     * @throws InterruptedException Si el hilo es interrumpido mientras espera las descargas.
+     */
+    public List<String> restaurar(List<String> nombres) throws InterruptedException {
+        List<Future<Path>> descargas = new ArrayList<>(nombres.size());
+        for (String nombre : nombres) {
+            descargas.add(trabajos.submit(() -> sincronizacion.restoreFile(nombre)));
+        }
+        List<String> fallidos = new ArrayList<>();
+        for (int i = 0; i < nombres.size(); i++) {
+            try {
+                if (descargas.get(i).get() == null) {
+                    fallidos.add(nombres.get(i));
+                }
+            } catch (ExecutionException e) {
+                fallidos.add(nombres.get(i));
+            }
+        }
+        return fallidos;
+    }
+
+    /**
+     * Pone la sincronización en pausa; los cambios se anotan como pendientes.
+     */
+    public void pausar() {
+        sincronizacion.pause();
+    }
+
+    /**
+     * Quita la pausa y procesa en segundo plano lo que se anotó mientras tanto.
+     */
+    public void reanudar() {
+        sincronizacion.resume();
+        trabajos.submit(sincronizacion::processPending);
+    }
+
+    /**
+     * Sube ya las operaciones pendientes y el paquete en curso.
+     * @throws IOException Si no se puede conectar con el servidor FTP.
+     */
+    public void vaciar() throws IOException {
+        sincronizacion.flush();
+    }
+
+    /**
+     * Estado del servicio en una línea: pausa, operaciones en curso y pendientes, ajuste de transferencias
+     * y objetos dañados en la última pasada del depurador.
+     */
+    public String estado() {
+        return String.format("pausado=%b enCurso=%d pendientes=%d danados=%d ajuste=[%s]",
+                sincronizacion.isPaused(), sincronizacion.getInFlightCount(), sincronizacion.getPendingCount(),
+                depurador == null ? 0 : depurador.getFallidos().size(), AjusteDeTransferencias.getAjuste().resumen());
+    }
+
+    /**
+     * Bucle del hilo de reintentos: procesa las operaciones pendientes que quedaron por un fallo
+     * hasta que empieza la parada.
+     */
+    private void reintentarPendientes() {
+        try {
+            while (!parada.await(reintentoMs, TimeUnit.MILLISECONDS)) {
+                synchronized (this) {
+                    if (detenido) {
+                        return;
+                    }
+                }
+                if (!sincronizacion.isPaused() && sincronizacion.getPendingCount() > 0) {
+                    log.info("demonio.reintento", "Reintentando {} operaciones pendientes", sincronizacion.getPendingCount());
+                    sincronizacion.processPending();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void iniciarHilo(Runnable tarea, String nombre) {
+        Thread hilo = new Thread(tarea, nombre);
+        hilo.setDaemon(true); // No impiden que la aplicación termine
+        hilo.start();
+    }
+}
\ No newline at end of file
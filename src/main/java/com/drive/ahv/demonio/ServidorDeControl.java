@@ -0,0 +1,291 @@
+package com.drive.ahv.demonio;
+
+import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Socket de control local (socket de dominio Unix) para manejar el Demonio sin reiniciar la JVM.
+ * El socket se crea en demonio.socket (por defecto, control/drive-ahv.sock en local.encryptedDir), dentro de un
+ * directorio al que solo tiene acceso el usuario propietario (0700), así que nadie más puede conectarse ni siquiera
+ * en el instante entre crear el socket y fijar sus permisos.
+ * Si el socket ya existe y responde, hay otro demonio en marcha sobre los mismos directorios y no se arranca.
+ *
+ * Protocolo de texto, una orden por línea; en una misma conexión se pueden enviar varias órdenes seguidas
+ * (termina con una línea vacía o al cerrar la escritura). Cada orden recibe una línea "OK ..." o "ERROR ..."
+ * y, al final, una línea "FIN". Los argumentos se separan con espacios; los que contienen espacios van entre comillas.
+ * <ul>
+ *     <li>sincronizar &lt;ruta&gt;... — sube (o borra en el servidor) los archivos indicados ya.</li>
+ *     <li>restaurar &lt;nombre&gt;... — descarga y descifra los archivos en local.downloadDir.</li>
+ *     <li>estado — pausa, operaciones en curso y pendientes, ajuste de transferencias y objetos dañados.</li>
+ *     <li>pausar / reanudar — detiene o reanuda las subidas; mientras tanto los cambios se anotan.</li>
+ *     <li>vaciar — procesa lo pendiente y sube el paquete en curso.</li>
+ *     <li>detener — parada ordenada.</li>
+ * </ul>
+ */
+public class ServidorDeControl implements Runnable {
+
+    private static final Configuracion config = Configuracion.getConfig(); // Instancia de Configuration
+    private static final Registro log = Registro.de(ServidorDeControl.class); // Registro de eventos
+
+    private final Demonio demonio; // Servicio que ejecuta las órdenes
+    private final Path rutaSocket; // Ruta del socket en el sistema de archivos
+    private final ServerSocketChannel servidor;
+    private final ExecutorService clientes; // Un hilo por conexión de control
+    private volatile boolean activo = true;
+
+    /**
+     * Constructor de ServidorDeControl. Crea el socket en la ruta configurada.
+     * @param demonio Servicio que ejecuta las órdenes recibidas.
+     * @throws IOException Si no se puede crear el socket, si su directorio es accesible para otros usuarios
+     * o si ya hay otro demonio escuchando en él.
+     */
+    public ServidorDeControl(Demonio demonio) throws IOException {
+        this.demonio = demonio;
+        this.rutaSocket = rutaSocket();
+        prepararDirectorio(rutaSocket.toAbsolutePath().getParent());
+        if (Files.exists(rutaSocket)) {
+            if (responde(rutaSocket)) {
+                throw new IOException("Ya hay un demonio en marcha con el socket de control " + rutaSocket);
+            }
+            log.info("control.socketAnterior", "Se borra el socket de una ejecución anterior que no se cerró: {}", rutaSocket);
+            Files.deleteIfExists(rutaSocket);
+        }
+        this.servidor = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        servidor.bind(UnixDomainSocketAddress.of(rutaSocket));
+        this.clientes = Executors.newCachedThreadPool(r -> {
+            Thread hilo = new Thread(r, "control-cliente");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    /**
+     * Ruta del socket de control según la configuración.
+     */
+    public static Path rutaSocket() {
+        return Paths.get(config.getProperty("demonio.socket",
+                Paths.get(config.getProperty("local.encryptedDir"), "control", "drive-ahv.sock").toString()));
+    }
+
+    /**
+     * Indica si hay un proceso escuchando en el socket.
+     */
+    private static boolean responde(Path rutaSocket) {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(rutaSocket)).close();
+            return true;
+        } catch (IOException e) {
+            return false; // Nadie escucha: quedó de una ejecución que terminó sin cerrarlo
+        }
+    }
+
+    /**
+     * Crea el directorio del socket con permisos 0700 o comprueba que, si ya existe, solo es accesible
+     * por el propietario.
+     * @throws IOException Si no se puede crear o si otros usuarios tienen acceso.
+     */
+    private static void prepararDirectorio(Path directorio) throws IOException {
+        Set<PosixFilePermission> soloPropietario = PosixFilePermissions.fromString("rwx------");
+        try {
+            if (Files.notExists(directorio)) {
+                Files.createDirectories(directorio, PosixFilePermissions.asFileAttribute(soloPropietario));
+                Files.setPosixFilePermissions(directorio, soloPropietario); // La umask puede haber quitado permisos
+            } else if (!soloPropietario.containsAll(Files.getPosixFilePermissions(directorio))) {
+                throw new IOException("El directorio del socket de control debe ser accesible solo por el propietario (0700): " + directorio);
+            }
+        } catch (UnsupportedOperationException e) {
+            Files.createDirectories(directorio);
+            log.debug("control.permisos", "El sistema de archivos no admite permisos POSIX: {}", directorio);
+        }
+    }
+
+    @Override
+    public void run() {
+        log.info("control.inicio", "Socket de control escuchando en {}", rutaSocket);
+        try {
+            while (activo) {
+                SocketChannel cliente = servidor.accept();
+                clientes.submit(() -> atender(cliente));
+            }
+        } catch (IOException e) {
+            if (activo) {
+                log.error("control.error", "Error en el socket de control: {}", e.getMessage());
+            }
+        } finally {
+            log.info("control.fin", "Socket de control cerrado.");
+        }
+    }
+
+    /**
+     * Cierra el socket de control y borra su archivo. Las conexiones abiertas terminan su orden actual.
+     */
+    public void detener() {
+        activo = false;
+        try {
+            servidor.close();
+            Files.deleteIfExists(rutaSocket);
+        } catch (IOException e) {
+            log.warn("control.error", "Error al cerrar el socket de control: {}", e.getMessage());
+        }
+        clientes.shutdown();
+    }
+
+    /**
+     * Lee y ejecuta las órdenes de una conexión.
+     */
+    private void atender(SocketChannel cliente) {
+        try (cliente;
+             BufferedReader entrada = new BufferedReader(Channels.newReader(cliente, StandardCharsets.UTF_8));
+             BufferedWriter salida = new BufferedWriter(Channels.newWriter(cliente, StandardCharsets.UTF_8))) {
+            boolean detener = false;
+            String linea;
+            while ((linea = entrada.readLine()) != null && !linea.isBlank()) {
+                List<String> argumentos = separar(linea);
+                String orden = argumentos.remove(0).toLowerCase(Locale.ROOT);
+                log.info("control.orden", "Orden recibida: {}", linea);
+                salida.write(ejecutar(orden, argumentos));
+                salida.newLine();
+                salida.flush();
+                if ("detener".equals(orden)) {
+                    detener = true;
+                    break;
+                }
+            }
+            salida.write("FIN");
+            salida.newLine();
+            salida.flush();
+            if (detener) {
+                Thread parada = new Thread(demonio::detener, "parada-ordenada"); // Se responde antes de parar
+                parada.start();
+            }
+        } catch (IOException e) {
+            log.warn("control.error", "Error en una conexión de control: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Ejecuta una orden y devuelve la línea de respuesta.
+     */
+    private String ejecutar(String orden, List<String> argumentos) {
+        try {
+            switch (orden) {
+                case "sincronizar":
+                    if (argumentos.isEmpty()) {
+                        return "ERROR falta la ruta";
+                    }
+                    return "OK " + demonio.sincronizar(argumentos) + " archivos";
+                case "restaurar": {
+                    if (argumentos.isEmpty()) {
+                        return "ERROR falta el nombre";
+                    }
+                    List<String> fallidos = demonio.restaurar(argumentos);
+                    return fallidos.isEmpty()
+                            ? "OK " + argumentos.size() + " archivos restaurados"
+                            : "ERROR no se pudieron restaurar: " + String.join(" ", fallidos);
+                }
+                case "estado":
+                    return "OK " + demonio.estado();
+                case "pausar":
+                    demonio.pausar();
+                    return "OK en pausa";
+                case "reanudar":
+                    demonio.reanudar();
+                    return "OK reanudada";
+                case "vaciar":
+                    demonio.vaciar();
+                    return "OK";
+                case "detener":
+                    return "OK deteniendo";
+                default:
+                    return "ERROR orden desconocida: " + orden;
+            }
+        } catch (IOException e) {
+            return "ERROR " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "ERROR interrumpido";
+        } catch (RejectedExecutionException e) {
+            return "ERROR el servicio se está deteniendo"; // detener ya cerró la cola de trabajos
+        } catch (RuntimeException e) {
+            log.error("control.error", "Error al ejecutar la orden {}: {}", orden, e.toString());
+            return "ERROR " + e;
+        }
+    }
+
+    /**
+     * Separa una línea en argumentos por espacios, respetando los que van entre comillas.
+     */
+    static List<String> separar(String linea) {
+        List<String> argumentos = new ArrayList<>();
+        StringBuilder actual = new StringBuilder();
+        boolean comillas = false;
+        boolean hayArgumento = false;
+        for (char c : linea.trim().toCharArray()) {
+            if (c == '"') {
+                comillas = !comillas;
+                hayArgumento = true;
+            } else if (Character.isWhitespace(c) && !comillas) {
+                if (hayArgumento) {
+                    argumentos.add(actual.toString());
+                    actual.setLength(0);
+                    hayArgumento = false;
+                }
+            } else {
+                actual.append(c);
+                hayArgumento = true;
+            }
+        }
+        if (hayArgumento) {
+            argumentos.add(actual.toString());
+        }
+        return argumentos;
+    }
+
+    /**
+     * Cliente mínimo: envía las órdenes al socket de control y escribe las respuestas en la salida estándar.
+     * @param ordenes Órdenes a enviar, una por elemento.
+     * @return true si todas las órdenes respondieron OK.
+     * @throws IOException Si no se puede conectar con el socket (el demonio no está en marcha).
+     */
+    public static boolean enviar(List<String> ordenes) throws IOException {
+        boolean correcto = true;
+        try (SocketChannel canal = SocketChannel.open(UnixDomainSocketAddress.of(rutaSocket()));
+             BufferedReader entrada = new BufferedReader(Channels.newReader(canal, StandardCharsets.UTF_8));
+             BufferedWriter salida = new BufferedWriter(Channels.newWriter(canal, StandardCharsets.UTF_8))) {
+            for (String orden : ordenes) {
+                salida.write(orden);
+                salida.newLine();
+            }
+            salida.newLine(); // Línea vacía: no hay más órdenes
+            salida.flush();
+            String linea;
+            while ((linea = entrada.readLine()) != null && !"FIN".equals(linea)) {
+                System.out.println(linea);
+                correcto &= linea.startsWith("OK");
+            }
+        }
+        return correcto;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.drive.ahv.log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Archivo de registro que rota por tamaño.
+ * Al superar el tamaño máximo, el archivo actual pasa a ser ".1", el ".1" pasa a ".2", etc.,
+ * conservando como mucho el número de archivos configurado.
+ * Solo lo usa el hilo consumidor del registro, por lo que no está sincronizado.
+ */
+final class ArchivoRotativo implements Closeable {
+
+    private static final byte[] SALTO_LINEA = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final Path ruta; // Ruta del archivo de registro actual
+    private final long maxBytes; // Tamaño a partir del cual se rota
+    private final int maxArchivos; // Número de archivos rotados que se conservan
+    private OutputStream salida;
+    private long tamano; // Bytes escritos en el archivo actual
+
+    /**
+     * Constructor de ArchivoRotativo. Abre el archivo en modo añadir, creando sus directorios si no existen.
+     * @param ruta Ruta del archivo de registro.
+     * @param maxBytes Tamaño máximo del archivo antes de rotarlo.
+     * @param maxArchivos Número de archivos rotados que se conservan.
+     * @throws IOException Si no se puede abrir el archivo.
+     */
+    ArchivoRotativo(Path ruta, long maxBytes, int maxArchivos) throws IOException {
+        this.ruta = ruta.toAbsolutePath();
+        this.maxBytes = maxBytes;
+        this.maxArchivos = Math.max(1, maxArchivos);
+        Files.createDirectories(this.ruta.getParent());
+        abrir(StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Escribe una línea en el archivo, rotándolo antes si la línea no cabe.
+     * @param linea La línea a escribir, sin salto de línea.
+     * @throws IOException Si ocurre un error de escritura o de rotación.
+     */
+    void escribir(CharSequence linea) throws IOException {
+        byte[] bytes = linea.toString().getBytes(StandardCharsets.UTF_8);
+        if (tamano > 0 && tamano + bytes.length + SALTO_LINEA.length > maxBytes) {
+            rotar();
+        }
+        salida.write(bytes);
+        salida.write(SALTO_LINEA);
+        tamano += bytes.length + SALTO_LINEA.length;
+    }
+
+    /**
+     * Vuelca al disco lo que quede en el buffer.
+     * @throws IOException Si ocurre un error de escritura.
+     */
+    void vaciar() throws IOException {
+        salida.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        salida.close();
+    }
+
+    private void rotar() throws IOException {
+        salida.close();
+        Files.deleteIfExists(rotado(maxArchivos));
+        for (int i = maxArchivos - 1; i >= 1; i--) {
+            Path origen = rotado(i);
+            if (Files.exists(origen)) {
+                Files.move(origen, rotado(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(ruta, rotado(1), StandardCopyOption.REPLACE_EXISTING);
+        abrir(StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private Path rotado(int indice) {
+        return ruta.resolveSibling(ruta.getFileName() + "." + indice);
+    }
+
+    private void abrir(StandardOpenOption modo) throws IOException {
+        salida = new BufferedOutputStream(Files.newOutputStream(ruta, StandardOpenOption.CREATE, StandardOpenOption.WRITE, modo), 64 * 1024);
+        tamano = Files.size(ruta);
+    }
+}
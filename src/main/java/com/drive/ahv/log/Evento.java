@@ -0,0 +1,45 @@
+package com.drive.ahv.log;
+
+/**
+ * Hueco reutilizable del buffer circular del registro.
+ * Los productores rellenan los campos y publican el evento escribiendo su secuencia;
+ * el hilo consumidor lo formatea y lo limpia para reutilizarlo.
+ */
+final class Evento {
+    volatile long secuencia = -1; // Secuencia publicada en este hueco (-1 si nunca se ha usado)
+    long instante; // Hora del evento en milisegundos
+    Nivel nivel;
+    String hilo; // Nombre del hilo que generó el evento
+    String componente; // Clase que generó el evento
+    String nombre; // Nombre estructurado del evento (ej. "ftp.subida")
+    String plantilla; // Mensaje con marcadores {} para los argumentos
+    int numArgs; // Número de argumentos guardados
+    Object arg0;
+    Object arg1;
+    Object arg2;
+    Object[] args; // Solo se usa cuando hay más de tres argumentos
+
+    /**
+     * Obtiene el argumento en la posición indicada.
+     */
+    Object arg(int i) {
+        if (args != null) {
+            return args[i];
+        }
+        return i == 0 ? arg0 : i == 1 ? arg1 : arg2;
+    }
+
+    /**
+     * Libera las referencias para no retener objetos mientras el hueco espera a ser reutilizado.
+     */
+    void limpiar() {
+        hilo = null;
+        componente = null;
+        nombre = null;
+        plantilla = null;
+        arg0 = null;
+        arg1 = null;
+        arg2 = null;
+        args = null;
+    }
+}
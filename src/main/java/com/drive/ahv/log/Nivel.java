@@ -0,0 +1,11 @@
+package com.drive.ahv.log;
+
+/**
+ * Niveles del registro de eventos, de menor a mayor severidad.
+ */
+public enum Nivel {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR
+}
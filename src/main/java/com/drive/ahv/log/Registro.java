@@ -0,0 +1,212 @@
+package com.drive.ahv.log;
+
+import com.drive.ahv.config.Configuracion;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registro estructurado de eventos de la aplicación.
+ * Cada evento tiene un nivel, el componente que lo genera, un nombre estable (ej. "ftp.subida") y un mensaje
+ * con marcadores {} que se sustituyen por los argumentos en el hilo consumidor, nunca en el hilo que registra.
+ * Si el nivel está desactivado, la llamada termina sin formatear ni reservar memoria.
+ *
+ * Configuración (config.properties o -Dclave=valor):
+ * log.nivel (DEBUG, INFO, WARN, ERROR; INFO por defecto), log.consola (true por defecto),
+ * log.archivo (ruta del archivo rotativo; sin archivo por defecto), log.maxBytes, log.maxArchivos y log.capacidad.
+ *
+ * Al apagarse la JVM, un único gancho ejecuta primero las tareas registradas con antesDeApagar() y después detiene
+ * el sumidero: la JVM ejecuta los ganchos a la vez, así que con ganchos separados se perderían los eventos
+ * de esas tareas.
+ */
+public final class Registro {
+
+    private static final Nivel NIVEL; // Nivel mínimo que se registra
+    private static final SumideroAsincrono SUMIDERO; // Sumidero compartido por todos los registros
+    private static final List<Runnable> TAREAS_APAGADO = new CopyOnWriteArrayList<>(); // Se ejecutan antes de detener el sumidero
+
+    static {
+        Configuracion config = Configuracion.getConfig();
+        NIVEL = leerNivel(config.getProperty("log.nivel", "INFO"));
+        boolean consola = Boolean.parseBoolean(config.getProperty("log.consola", "true"));
+        int capacidad = (int) leerNumero(config, "log.capacidad", 8192, 1 << 30);
+        String rutaArchivo = config.getProperty("log.archivo", "");
+        ArchivoRotativo archivo = null;
+        if (!rutaArchivo.isBlank()) {
+            try {
+                archivo = new ArchivoRotativo(Paths.get(rutaArchivo),
+                        leerNumero(config, "log.maxBytes", 10485760, Long.MAX_VALUE),
+                        (int) leerNumero(config, "log.maxArchivos", 5, Integer.MAX_VALUE));
+            } catch (IOException e) {
+                System.err.println("Error al abrir el archivo de registro " + rutaArchivo + ": " + e.getMessage());
+            }
+        }
+        SUMIDERO = new SumideroAsincrono(capacidad, consola, archivo);
+        Runtime.getRuntime().addShutdownHook(new Thread(Registro::apagar, "registro-apagado"));
+    }
+
+    /**
+     * Un valor mal escrito no puede impedir que se cargue la clase (y con ella toda la aplicación):
+     * se usa el valor por defecto y se avisa por la salida de error, porque el registro aún no está listo.
+     */
+    private static Nivel leerNivel(String valor) {
+        try {
+            return Nivel.valueOf(valor.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Valor de log.nivel no válido: " + valor + "; se usa INFO");
+            return Nivel.INFO;
+        }
+    }
+
+    private static long leerNumero(Configuracion config, String clave, long porDefecto, long maximo) {
+        String valor = config.getProperty(clave, String.valueOf(porDefecto));
+        try {
+            long numero = Long.parseLong(valor.trim());
+            if (numero > 0 && numero <= maximo) {
+                return numero;
+            }
+        } catch (NumberFormatException e) {
+            // Se avisa abajo, igual que un número fuera de rango
+        }
+        System.err.println("Valor de " + clave + " no válido: " + valor + "; se usa " + porDefecto);
+        return porDefecto;
+    }
+
+    private final String componente; // Nombre del componente que aparece en cada evento
+
+    private Registro(String componente) {
+        this.componente = componente;
+    }
+
+    /**
+     * Obtiene un registro para la clase indicada.
+     * @param clase La clase que generará los eventos.
+     * @return Un registro cuyo componente es el nombre simple de la clase.
+     */
+    public static Registro de(Class<?> clase) {
+        return new Registro(clase.getSimpleName());
+    }
+
+    /**
+     * Registra una tarea que se ejecuta al apagarse la JVM (SIGTERM, Ctrl+C o fin normal), antes de detener
+     * el sumidero, de modo que sus eventos se escriben. Las tareas se ejecutan en orden de registro.
+     * @param tarea La tarea a ejecutar.
+     */
+    public static void antesDeApagar(Runnable tarea) {
+        TAREAS_APAGADO.add(tarea);
+    }
+
+    private static void apagar() {
+        for (Runnable tarea : TAREAS_APAGADO) {
+            try {
+                tarea.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error en una tarea de apagado: " + e);
+            }
+        }
+        SUMIDERO.detener(5_000);
+    }
+
+    /**
+     * Espera a que se hayan escrito todos los eventos registrados hasta ahora.
+     * @param timeoutMillis Tiempo máximo de espera en milisegundos.
+     */
+    public static void vaciar(long timeoutMillis) {
+        SUMIDERO.vaciar(timeoutMillis);
+    }
+
+    /**
+     * Indica si el nivel está activado, para evitar calcular argumentos costosos cuando no lo está.
+     * @param nivel El nivel a comprobar.
+     * @return true si los eventos de ese nivel se registran.
+     */
+    public boolean isEnabled(Nivel nivel) {
+        return nivel.compareTo(NIVEL) >= 0;
+    }
+
+    public void debug(String evento, String plantilla) {
+        registrar(Nivel.DEBUG, evento, plantilla, 0, null, null, null, null);
+    }
+
+    public void debug(String evento, String plantilla, Object arg0) {
+        registrar(Nivel.DEBUG, evento, plantilla, 1, arg0, null, null, null);
+    }
+
+    public void debug(String evento, String plantilla, Object arg0, Object arg1) {
+        registrar(Nivel.DEBUG, evento, plantilla, 2, arg0, arg1, null, null);
+    }
+
+    public void debug(String evento, String plantilla, Object arg0, Object arg1, Object arg2) {
+        registrar(Nivel.DEBUG, evento, plantilla, 3, arg0, arg1, arg2, null);
+    }
+
+    public void info(String evento, String plantilla) {
+        registrar(Nivel.INFO, evento, plantilla, 0, null, null, null, null);
+    }
+
+    public void info(String evento, String plantilla, Object arg0) {
+        registrar(Nivel.INFO, evento, plantilla, 1, arg0, null, null, null);
+    }
+
+    public void info(String evento, String plantilla, Object arg0, Object arg1) {
+        registrar(Nivel.INFO, evento, plantilla, 2, arg0, arg1, null, null);
+    }
+
+    public void info(String evento, String plantilla, Object arg0, Object arg1, Object arg2) {
+        registrar(Nivel.INFO, evento, plantilla, 3, arg0, arg1, arg2, null);
+    }
+
+    public void warn(String evento, String plantilla) {
+        registrar(Nivel.WARN, evento, plantilla, 0, null, null, null, null);
+    }
+
+    public void warn(String evento, String plantilla, Object arg0) {
+        registrar(Nivel.WARN, evento, plantilla, 1, arg0, null, null, null);
+    }
+
+    public void warn(String evento, String plantilla, Object arg0, Object arg1) {
+        registrar(Nivel.WARN, evento, plantilla, 2, arg0, arg1, null, null);
+    }
+
+    public void warn(String evento, String plantilla, Object arg0, Object arg1, Object arg2) {
+        registrar(Nivel.WARN, evento, plantilla, 3, arg0, arg1, arg2, null);
+    }
+
+    public void error(String evento, String plantilla) {
+        registrar(Nivel.ERROR, evento, plantilla, 0, null, null, null, null);
+    }
+
+    public void error(String evento, String plantilla, Object arg0) {
+        registrar(Nivel.ERROR, evento, plantilla, 1, arg0, null, null, null);
+    }
+
+    public void error(String evento, String plantilla, Object arg0, Object arg1) {
+        registrar(Nivel.ERROR, evento, plantilla, 2, arg0, arg1, null, null);
+    }
+
+    public void error(String evento, String plantilla, Object arg0, Object arg1, Object arg2) {
+        registrar(Nivel.ERROR, evento, plantilla, 3, arg0, arg1, arg2, null);
+    }
+
+    /**
+     * Registra un evento con más de tres argumentos. Reserva el array de argumentos, por lo que
+     * conviene usar las variantes de aridad fija en las rutas frecuentes.
+     * @param nivel Nivel del evento.
+     * @param evento Nombre estructurado del evento.
+     * @param plantilla Mensaje con marcadores {}.
+     * @param args Argumentos del mensaje; un último Throwable sobrante se registra con su traza.
+     */
+    public void log(Nivel nivel, String evento, String plantilla, Object... args) {
+        registrar(nivel, evento, plantilla, args.length, null, null, null, args);
+    }
+
+    private void registrar(Nivel nivel, String evento, String plantilla, int numArgs,
+                           Object arg0, Object arg1, Object arg2, Object[] args) {
+        if (nivel.compareTo(NIVEL) < 0) {
+            return; // Nivel desactivado: no se formatea nada
+        }
+        SUMIDERO.publicar(nivel, componente, evento, plantilla, numArgs, arg0, arg1, arg2, args);
+    }
+}
@@ -0,0 +1,257 @@
+package com.drive.ahv.log;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sumidero asíncrono del registro de eventos.
+ * Los hilos productores copian las referencias del evento en un hueco preasignado de un buffer circular
+ * (sin formatear ni concatenar cadenas) y un único hilo consumidor formatea los eventos y los escribe
+ * en consola y/o en un archivo rotativo.
+ * Si el buffer está lleno, los eventos DEBUG e INFO se descartan (y se cuentan) y los WARN y ERROR esperan hueco.
+ */
+final class SumideroAsincrono implements Runnable {
+
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+    private static final long ESPERA_MAXIMA_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // Espera máxima del consumidor sin eventos
+
+    private final Evento[] anillo; // Huecos preasignados del buffer circular
+    private final int mascara; // anillo.length - 1 (la capacidad es potencia de dos)
+    private final AtomicLong cursor = new AtomicLong(); // Siguiente secuencia a reservar por un productor
+    private final AtomicLong consumido = new AtomicLong(); // Siguiente secuencia a consumir
+    private final AtomicLong descartados = new AtomicLong(); // Eventos descartados por buffer lleno
+    private final boolean consola; // true para escribir también en consola
+    private final ArchivoRotativo archivo; // Archivo de salida, o null si no se escribe en archivo
+    private final StringBuilder linea = new StringBuilder(256); // Buffer de formateo reutilizado por el consumidor
+    private final Thread hilo;
+    private volatile boolean detenido;
+    private long descartadosInformados; // Descartes ya notificados en el propio registro
+
+    /**
+     * Constructor de SumideroAsincrono. Arranca el hilo consumidor.
+     * @param capacidad Número de eventos que caben en el buffer (se redondea a potencia de dos).
+     * @param consola true para escribir los eventos en consola.
+     * @param archivo Archivo rotativo de salida, o null para no escribir en archivo.
+     */
+    SumideroAsincrono(int capacidad, boolean consola, ArchivoRotativo archivo) {
+        int tamano = Integer.highestOneBit(Math.max(2, capacidad - 1)) << 1;
+        this.anillo = new Evento[tamano];
+        for (int i = 0; i < tamano; i++) {
+            anillo[i] = new Evento();
+        }
+        this.mascara = tamano - 1;
+        this.consola = consola;
+        this.archivo = archivo;
+        this.hilo = new Thread(this, "registro-eventos");
+        hilo.setDaemon(true); // No impide que la JVM termine; el gancho de apagado vacía lo pendiente
+        hilo.start();
+    }
+
+    /**
+     * Publica un evento en el buffer circular. Solo copia referencias; el formateo lo hace el consumidor.
+     * @return true si el evento se publicó, false si se descartó por buffer lleno.
+     */
+    boolean publicar(Nivel nivel, String componente, String nombre, String plantilla,
+                     int numArgs, Object arg0, Object arg1, Object arg2, Object[] args) {
+        long secuencia;
+        while (true) {
+            secuencia = cursor.get();
+            if (secuencia - consumido.get() >= anillo.length) {
+                if (nivel.compareTo(Nivel.WARN) < 0 || detenido || !hilo.isAlive()) { // Sin consumidor no se liberaría ningún hueco
+                    descartados.incrementAndGet();
+                    return false;
+                }
+                LockSupport.parkNanos(50_000); // Avisos y errores esperan a que el consumidor libere un hueco
+                continue;
+            }
+            if (cursor.compareAndSet(secuencia, secuencia + 1)) {
+                break;
+            }
+        }
+        Evento evento = anillo[(int) secuencia & mascara];
+        evento.instante = System.currentTimeMillis();
+        evento.nivel = nivel;
+        evento.hilo = Thread.currentThread().getName();
+        evento.componente = componente;
+        evento.nombre = nombre;
+        evento.plantilla = plantilla;
+        evento.numArgs = numArgs;
+        evento.arg0 = arg0;
+        evento.arg1 = arg1;
+        evento.arg2 = arg2;
+        evento.args = args;
+        evento.secuencia = secuencia; // Escritura volátil: publica el evento al consumidor
+        return true;
+    }
+
+    /**
+     * Bucle del hilo consumidor: formatea y escribe los eventos en orden de secuencia.
+     * Cuando no hay eventos vuelca las salidas y espera con pausas crecientes.
+     */
+    @Override
+    public void run() {
+        long siguiente = consumido.get();
+        long espera = 1_000;
+        boolean sinVolcar = false;
+        while (true) {
+            Evento evento = anillo[(int) siguiente & mascara];
+            if (evento.secuencia == siguiente) {
+                try {
+                    escribir(evento);
+                } catch (Throwable t) {
+                    // Un toString() de un argumento que falla no puede parar el consumidor
+                    System.err.println("Error al formatear el evento " + evento.componente + " " + evento.nombre + ": " + t);
+                } finally {
+                    evento.limpiar();
+                    consumido.set(++siguiente); // Libera el hueco para los productores
+                }
+                sinVolcar = true;
+                espera = 1_000;
+                continue;
+            }
+            if (sinVolcar) {
+                informarDescartados();
+                volcar();
+                sinVolcar = false;
+            }
+            if (detenido && cursor.get() == siguiente) {
+                break;
+            }
+            LockSupport.parkNanos(espera);
+            espera = Math.min(espera * 2, ESPERA_MAXIMA_NANOS);
+        }
+        cerrar();
+    }
+
+    /**
+     * Espera a que el consumidor haya escrito todos los eventos publicados hasta ahora.
+     * @param timeoutMillis Tiempo máximo de espera en milisegundos.
+     */
+    void vaciar(long timeoutMillis) {
+        long objetivo = cursor.get();
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (consumido.get() < objetivo && System.nanoTime() < limite && hilo.isAlive()) {
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    /**
+     * Detiene el consumidor tras escribir los eventos pendientes.
+     * @param timeoutMillis Tiempo máximo de espera en milisegundos.
+     */
+    void detener(long timeoutMillis) {
+        detenido = true;
+        LockSupport.unpark(hilo);
+        try {
+            hilo.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void escribir(Evento evento) {
+        formatear(evento);
+        if (consola) {
+            if (evento.nivel.compareTo(Nivel.WARN) >= 0) {
+                System.err.println(linea);
+            } else {
+                System.out.println(linea);
+            }
+        }
+        if (archivo != null) {
+            try {
+                archivo.escribir(linea);
+            } catch (IOException e) {
+                System.err.println("Error al escribir en el archivo de registro: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Formatea el evento en el StringBuilder reutilizable:
+     * fecha nivel [hilo] componente nombre - mensaje
+     * Los marcadores {} se sustituyen por los argumentos en orden; si sobra un último argumento
+     * de tipo Throwable, se añade su traza.
+     */
+    private void formatear(Evento evento) {
+        linea.setLength(0);
+        FORMATO_FECHA.formatTo(Instant.ofEpochMilli(evento.instante), linea);
+        linea.append(' ').append(evento.nivel.name());
+        for (int i = evento.nivel.name().length(); i < 5; i++) {
+            linea.append(' ');
+        }
+        linea.append(" [").append(evento.hilo).append("] ")
+                .append(evento.componente).append(' ')
+                .append(evento.nombre).append(" - ");
+
+        String plantilla = evento.plantilla;
+        int usados = 0;
+        int desde = 0;
+        int marcador;
+        while (usados < evento.numArgs && (marcador = plantilla.indexOf("{}", desde)) >= 0) {
+            linea.append(plantilla, desde, marcador).append(evento.arg(usados++));
+            desde = marcador + 2;
+        }
+        linea.append(plantilla, desde, plantilla.length());
+
+        if (usados < evento.numArgs && evento.arg(evento.numArgs - 1) instanceof Throwable) {
+            StringWriter traza = new StringWriter();
+            ((Throwable) evento.arg(evento.numArgs - 1)).printStackTrace(new PrintWriter(traza));
+            linea.append(System.lineSeparator()).append(traza.toString().stripTrailing());
+        }
+    }
+
+    private void informarDescartados() {
+        long total = descartados.get();
+        if (total > descartadosInformados) {
+            linea.setLength(0);
+            FORMATO_FECHA.formatTo(Instant.now(), linea);
+            linea.append(" WARN  [").append(hilo.getName()).append("] SumideroAsincrono registro.descartados - ")
+                    .append(total - descartadosInformados).append(" eventos descartados por buffer lleno");
+            descartadosInformados = total;
+            if (consola) {
+                System.err.println(linea);
+            }
+            if (archivo != null) {
+                try {
+                    archivo.escribir(linea);
+                } catch (IOException e) {
+                    System.err.println("Error al escribir en el archivo de registro: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void volcar() {
+        if (consola) {
+            System.out.flush();
+        }
+        if (archivo != null) {
+            try {
+                archivo.vaciar();
+            } catch (IOException e) {
+                System.err.println("Error al volcar el archivo de registro: " + e.getMessage());
+            }
+        }
+    }
+
+    private void cerrar() {
+        informarDescartados();
+        volcar();
+        if (archivo != null) {
+            try {
+                archivo.close();
+            } catch (IOException e) {
+                System.err.println("Error al cerrar el archivo de registro: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.drive.ahv.sync;
+
+import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
+import com.drive.ahv.utils.FTPUtil;
+import com.drive.ahv.utils.Huella;
+import com.drive.ahv.utils.ManifiestoRemoto;
+import com.drive.ahv.utils.VerificacionUtil;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Depurador en segundo plano del almacén remoto.
+ * Recorre periódicamente todos los objetos del manifiesto y verifica cada uno con VerificacionUtil,
+ * limitando su ritmo (objetos por segundo y bytes leídos por segundo) para no competir con la sincronización.
+ * Los objetos que no superan la verificación se registran como errores y quedan en getFallidos().
+ * De cada objeto correcto se guarda su fecha de modificación (MDTM): si en una pasada posterior no coincide con la
+ * huella pero su fecha ha cambiado, es que otro cliente lo ha sustituido (SondeoRemoto lo aplicará) y no se da por dañado.
+ * La primera pasada se hace al arrancar.
+ */
+public class DepuradorRemoto implements Runnable {
+
+    private static final Configuracion config = Configuracion.getConfig(); // Instancia de Configuration
+    private static final Registro log = Registro.de(DepuradorRemoto.class); // Registro de eventos
+
+    private final long intervaloPasadaMs; // Tiempo entre el final de una pasada y el inicio de la siguiente
+    private final double objetosPorSegundo; // Ritmo máximo de objetos verificados
+    private final long bytesPorSegundo; // Ritmo máximo de bytes leídos por rango
+    private final int muestras; // Bloques leídos por objeto si el servidor no calcula hashes
+    private final CountDownLatch parada = new CountDownLatch(1); // Se libera al detener el depurador
+    private volatile List<String> fallidos = Collections.emptyList(); // Objetos fallidos en la última pasada
+    private final Map<String, Long> fechasVerificadas = new HashMap<>(); // Nombre -> MDTM cuando se verificó correcto
+
+    /**
+     * Constructor de DepuradorRemoto.
+     * Lee verificacion.intervaloPasadaMin, verificacion.objetosPorSegundo, verificacion.bytesPorSegundo
+     * y verificacion.muestras de la configuración.
+     */
+    public DepuradorRemoto() {
+        this.intervaloPasadaMs = TimeUnit.MINUTES.toMillis(Long.parseLong(config.getProperty("verificacion.intervaloPasadaMin", "60")));
+        this.objetosPorSegundo = Double.parseDouble(config.getProperty("verificacion.objetosPorSegundo", "2"));
+        this.bytesPorSegundo = Long.parseLong(config.getProperty("verificacion.bytesPorSegundo", "524288"));
+        this.muestras = Integer.parseInt(config.getProperty("verificacion.muestras", "2"));
+    }
+
+    @Override
+    public void run() {
+        log.info("depurador.inicio", "Depurador remoto iniciado: una pasada cada {} min", TimeUnit.MILLISECONDS.toMinutes(intervaloPasadaMs));
+        try {
+            do {
+                pasada();
+            } while (!parada.await(intervaloPasadaMs, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            log.info("depurador.fin", "Hilo del depurador remoto finalizado.");
+        }
+    }
+
+    /**
+     * Verifica todos los objetos del manifiesto usando una sola conexión.
+     * @throws InterruptedException Si el depurador se detiene durante la pasada.
+     */
+    void pasada() throws InterruptedException {
+        ManifiestoRemoto manifiesto = ManifiestoRemoto.getManifiesto();
+        List<String> nombres = manifiesto.nombres();
+        Map<VerificacionUtil.Resultado, Integer> resultados = new EnumMap<>(VerificacionUtil.Resultado.class);
+        List<String> fallidosPasada = new ArrayList<>();
+        long inicio = System.nanoTime();
+        FTPClient clienteFTP = null;
+        try {
+            clienteFTP = FTPUtil.connectFTP();
+            for (String nombre : nombres) {
+                Huella huella = manifiesto.obtener(nombre);
+                if (huella == null) {
+                    continue; // Borrado o movido desde que se tomó la lista
+                }
+                long antes = System.nanoTime();
+                VerificacionUtil.Resultado resultado = VerificacionUtil.verificar(clienteFTP, nombre, huella, muestras);
+                if (resultado == VerificacionUtil.Resultado.AUSENTE && manifiesto.obtener(nombre) == null) {
+                    continue; // Se borró mientras se verificaba
+                }
+                if (resultado == VerificacionUtil.Resultado.CORRECTO) {
+                    fechasVerificadas.put(nombre, VerificacionUtil.fechaModificacion(clienteFTP, nombre));
+                } else if (resultado != VerificacionUtil.Resultado.ERROR && resultado != VerificacionUtil.Resultado.AUSENTE
+                        && sustituido(clienteFTP, nombre)) {
+                    log.warn("depurador.sustituido", "Objeto remoto sustituido por otro cliente desde la última pasada: {} ({})", nombre, resultado);
+                    continue;
+                }
+                resultados.merge(resultado, 1, Integer::sum);
+                if (resultado != VerificacionUtil.Resultado.CORRECTO && resultado != VerificacionUtil.Resultado.ERROR) {
+                    fallidosPasada.add(nombre);
+                    log.error("depurador.fallo", "Objeto remoto dañado: {} ({})", nombre, resultado);
+                }
+                // Limita el ritmo: espera lo que falte para respetar ambos límites
+                long minimoNanos = Math.max((long) (1e9 / objetosPorSegundo),
+                        VerificacionUtil.bytesMuestra(huella, muestras) * 1_000_000_000L / Math.max(1, bytesPorSegundo));
+                long restante = minimoNanos - (System.nanoTime() - antes);
+                if (restante > 0 && parada.await(restante, TimeUnit.NANOSECONDS)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            log.error("depurador.error", "Error de conexión durante la pasada del depurador: {}", e.getMessage());
+        } finally {
+            if (clienteFTP != null) {
+                FTPUtil.disconnectFTP(clienteFTP);
+            }
+        }
+        fechasVerificadas.keySet().retainAll(new HashSet<>(nombres)); // Olvida los objetos borrados o movidos
+        fallidos = Collections.unmodifiableList(fallidosPasada);
+        log.info("depurador.pasada", "Pasada del depurador en {} s: {}",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - inicio), resultados);
+    }
+
+    /**
+     * Indica si la fecha de modificación de un objeto ha cambiado desde que se verificó correcto por última vez.
+     */
+    private boolean sustituido(FTPClient clienteFTP, String nombre) throws IOException {
+        Long verificada = fechasVerificadas.get(nombre);
+        if (verificada == null || verificada < 0) {
+            return false; // Sin referencia: no se puede distinguir de un daño
+        }
+        long actual = VerificacionUtil.fechaModificacion(clienteFTP, nombre);
+        return actual >= 0 && actual != verificada;
+    }
+
+    /**
+     * Objetos que no superaron la verificación en la última pasada completa.
+     */
+    public List<String> getFallidos() {
+        return fallidos;
+    }
+
+    /**
+     * Detiene el depurador. La verificación en curso termina y no se inician más.
+     */
+    public void detener() {
+        parada.countDown();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,49 @@
+package com.drive.ahv.sync;
+
+import com.drive.ahv.config.Configuracion;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Backend de detección de cambios en el directorio local.
+ * Cada implementación se ejecuta en su propio hilo y avisa a Sincronizacion de los archivos creados,
+ * modificados y borrados.
+ */
+public interface DetectorDeCambios extends Runnable {
+
+    /**
+     * Tipos de sistema de archivos en los que WatchService no es fiable (red y algunas capas de contenedores).
+     */
+    Set<String> SISTEMAS_SIN_WATCH = Set.of("nfs", "nfs4", "cifs", "smb", "smb2", "smb3", "smbfs", "overlay", "9p", "vboxsf");
+
+    /**
+     * Detiene la detección de cambios. El hilo que ejecuta run() termina poco después.
+     * @throws IOException Si ocurre un error al liberar los recursos del detector.
+     */
+    void stopMonitor() throws IOException;
+
+    /**
+     * Crea el detector configurado en monitor.modo:
+     * "watch" usa WatchService (MonitorDeArchivos), "sondeo" usa EscanerPorSondeo y "auto" (por defecto)
+     * elige sondeo si el directorio local está en un sistema de archivos de red o de contenedor.
+     * @param syncService Servicio de sincronización al que se notifican los cambios.
+     * @return El detector de cambios.
+     * @throws IOException Si ocurre un error al inicializar el detector.
+     */
+    static DetectorDeCambios crear(Sincronizacion syncService) throws IOException {
+        Configuracion config = Configuracion.getConfig();
+        String modo = config.getProperty("monitor.modo", "auto").trim().toLowerCase(Locale.ROOT);
+        if ("auto".equals(modo)) {
+            String tipo = Files.getFileStore(Paths.get(config.getProperty("local.dir"))).type().toLowerCase(Locale.ROOT);
+            modo = SISTEMAS_SIN_WATCH.contains(tipo) || tipo.startsWith("fuse") ? "sondeo" : "watch";
+        }
+        if ("sondeo".equals(modo)) {
+            return new EscanerPorSondeo(syncService);
+        }
+        return new MonitorDeArchivos(syncService);
+    }
+}
@@ -0,0 +1,692 @@
+package com.drive.ahv.sync;
+
+import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
+import com.drive.ahv.utils.AESUtil;
+import com.drive.ahv.utils.FTPUtil;
+import com.drive.ahv.utils.Huella;
+import com.drive.ahv.utils.ManifiestoRemoto;
+import com.drive.ahv.utils.VerificacionUtil;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Empaqueta archivos pequeños para subirlos en una sola transferencia.
+ * Cada archivo por debajo del umbral se cifra por separado y se añade al paquete en curso; cuando el paquete
+ * alcanza su tamaño objetivo (o pasa el tiempo de espera) se sube como un único objeto y se anexan al índice
+ * remoto las ubicaciones (paquete, offset, longitud) de sus archivos.
+ * Como cada entrada está cifrada por separado, un archivo se recupera con una lectura por rango del paquete.
+ *
+ * Las versiones anteriores de un archivo empaquetado se quedan en su paquete antiguo en lugar de moverse al
+ * historial; los paquetes sin ninguna entrada viva se borran al compactar el índice.
+ *
+ * Varios equipos pueden compartir el mismo directorio remoto: los paquetes se nombran paq_&lt;equipo&gt;_&lt;n&gt;.pak y
+ * el índice remoto se vuelve a leer (solo lo anexado desde la última lectura) antes de reservar números de paquete,
+ * antes de compactar y cuando se busca un archivo que no está en la copia local del índice.
+ *
+ * El paquete en curso tiene una sola entrada por archivo (una versión nueva sustituye a la anterior) y un máximo
+ * en memoria de dos veces el tamaño objetivo: si el servidor no está disponible, los archivos que no caben se
+ * rechazan y el llamador los reintenta más tarde. La subida del paquete se hace fuera del monitor, así que mientras
+ * tanto se pueden seguir añadiendo archivos al siguiente.
+ */
+public class Empaquetador {
+
+    private static final Configuracion config = Configuracion.getConfig(); // Instancia de Configuration
+    private static final String AES_KEY = config.getProperty("aes.key");
+    private static final String LOCAL_ENCRYPTED_DIR = config.getProperty("local.encryptedDir");
+    private static final Registro log = Registro.de(Empaquetador.class); // Registro de eventos
+
+    private final long umbral; // Tamaño por debajo del cual un archivo se empaqueta
+    private final int tamPaquete; // Tamaño objetivo de cada paquete
+    private final long esperaMs; // Tiempo máximo que un archivo espera en el paquete en curso
+    private final String directorioRemoto; // Directorio remoto de paquetes e índice (relativo a ftp.remoteDir)
+    private final String indiceRemoto; // Ruta remota del diario del índice
+    private final long refrescoMs; // Antigüedad máxima de la copia local del índice antes de volver a leerlo
+
+    private final long maxMemoria; // Máximo del paquete en curso en memoria mientras no se puede subir
+
+    private final IndiceDePaquetes indice;
+    private final Object subida = new Object(); // Un solo vaciado a la vez; se toma siempre antes que el monitor
+    private Lote enCurso; // Paquete al que se añaden los archivos
+    private Lote enSubida; // Paquete que se está subiendo, o null
+    private final Set<String> paquetesBorrados = new HashSet<>(); // Paquetes sin uso ya borrados en esta ejecución
+    private final ScheduledExecutorService temporizador;
+    private ScheduledFuture<?> vaciadoProgramado; // Vaciado pendiente por tiempo, o null
+    private boolean indiceCargado;
+    private long ultimoRefresco; // Instante (System.nanoTime) de la última lectura del índice remoto
+
+    /**
+     * Constructor de Empaquetador.
+     * Lee empaquetado.umbralBytes, empaquetado.tamPaquete, empaquetado.esperaMs, empaquetado.dir,
+     * empaquetado.refrescoMs y empaquetado.equipo de la configuración.
+     */
+    public Empaquetador() {
+        this.umbral = Long.parseLong(config.getProperty("empaquetado.umbralBytes", "65536"));
+        this.tamPaquete = Integer.parseInt(config.getProperty("empaquetado.tamPaquete", "8388608"));
+        this.esperaMs = Long.parseLong(config.getProperty("empaquetado.esperaMs", "2000"));
+        this.directorioRemoto = config.getProperty("empaquetado.dir", "paquetes");
+        this.indiceRemoto = directorioRemoto + "/indice.idx";
+        this.refrescoMs = Long.parseLong(config.getProperty("empaquetado.refrescoMs", "30000"));
+        this.indice = new IndiceDePaquetes(equipo());
+        this.maxMemoria = 2L * tamPaquete;
+        this.enCurso = nuevoLote();
+        this.temporizador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "empaquetador");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    /**
+     * Indica si un archivo es lo bastante pequeño para empaquetarse.
+     * @param archivo El archivo local.
+     * @return true si su tamaño está por debajo del umbral.
+     */
+    public boolean admite(File archivo) {
+        return archivo.length() < umbral;
+    }
+
+    /**
+     * Cifra un archivo y lo añade al paquete en curso. Sube el paquete si alcanza el tamaño objetivo.
+     * Si el contenido cifrado coincide (longitud y MD5) con la última versión empaquetada, no se añade: el cifrado es
+     * determinista, así que el archivo no ha cambiado.
+     * @param archivo El archivo local a empaquetar.
+     * @return true si se añadió, false si no había cambios.
+     * @throws Exception Si ocurre un error al leer o cifrar, o si el paquete en curso ha llegado a su máximo
+     * en memoria sin poder subirse (el archivo no se ha añadido).
+     */
+    public boolean agregar(File archivo) throws Exception {
+        String nombre = archivo.getName();
+        byte[] cifrado = AESUtil.encrypt(Files.readAllBytes(archivo.toPath()), AES_KEY);
+        String md5 = Huella.de(cifrado).getMd5();
+        boolean lleno;
+        synchronized (this) {
+            asegurarIndice();
+            if (sinCambios(nombre, cifrado.length, md5)) {
+                return false;
+            }
+            int anterior = enCurso.buscar(nombre);
+            long ocupado = enCurso.tamano() - (anterior >= 0 ? enCurso.rangos.get(anterior)[1] : 0);
+            if (ocupado + cifrado.length > maxMemoria) {
+                programarVaciado();
+                throw new IOException("Paquete en curso lleno (" + maxMemoria + " bytes) sin poder subirse; se reintentará " + nombre);
+            }
+            enCurso.poner(nombre, cifrado, md5); // Sustituye la versión anterior si la había
+            log.debug("paquete.agregado", "Archivo añadido al paquete en curso: {}", nombre);
+            lleno = enCurso.tamano() >= tamPaquete;
+            if (!lleno) {
+                programarVaciado();
+            }
+        }
+        if (lleno) {
+            try {
+                vaciar(); // Fuera del monitor: otros archivos se pueden añadir mientras se sube
+            } catch (IOException e) {
+                // El archivo ya está en el paquete en curso, que se reintentará
+                log.warn("paquete.vaciado.error", "Error al subir el paquete en curso: {}", e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indica si la última versión empaquetada de un archivo (en el paquete en curso o en el índice) tiene
+     * la misma longitud y el mismo MD5.
+     */
+    private boolean sinCambios(String nombreArchivo, int longitud, String md5) {
+        for (Lote lote : new Lote[]{enCurso, enSubida}) {
+            int pendiente = lote == null || lote.quitados.contains(nombreArchivo) ? -1 : lote.buscar(nombreArchivo);
+            if (pendiente >= 0) {
+                return lote.rangos.get(pendiente)[1] == longitud && md5.equals(lote.huellas.get(pendiente));
+            }
+        }
+        IndiceDePaquetes.Ubicacion ubicacion = indice.buscar(nombreArchivo);
+        return ubicacion != null && ubicacion.longitud == longitud && md5.equals(ubicacion.md5);
+    }
+
+    /**
+     * Quita un archivo del índice, si estaba empaquetado. El cambio se sube con el siguiente vaciado.
+     * @param nombreArchivo El nombre del archivo local.
+     * @return true si el archivo estaba empaquetado.
+     * @throws IOException Si no se puede cargar el índice remoto.
+     */
+    public synchronized boolean quitar(String nombreArchivo) throws IOException {
+        asegurarIndice();
+        boolean quitado = enCurso.quitar(nombreArchivo);
+        if (enSubida != null && enSubida.buscar(nombreArchivo) >= 0) {
+            quitado |= enSubida.quitados.add(nombreArchivo); // Se está subiendo: no se indexará
+        }
+        quitado |= indice.quitar(nombreArchivo);
+        if (quitado) {
+            log.info("paquete.quitado", "Archivo quitado del índice de paquetes: {}", nombreArchivo);
+            programarVaciado();
+        }
+        return quitado;
+    }
+
+    /**
+     * Indica si un archivo está empaquetado (subido o en el paquete en curso). Si no está en la copia local del
+     * índice, se vuelve a leer el índice remoto por si lo ha empaquetado otro equipo.
+     * @param clienteFTP Cliente FTP conectado.
+     * @param nombreArchivo El nombre del archivo local.
+     * @return true si el archivo se descarga desde un paquete.
+     * @throws IOException Si no se puede cargar el índice remoto.
+     */
+    public synchronized boolean contiene(FTPClient clienteFTP, String nombreArchivo) throws IOException {
+        asegurarIndice();
+        if (indice.contiene(nombreArchivo) || enCurso.buscar(nombreArchivo) >= 0
+                || (enSubida != null && enSubida.buscar(nombreArchivo) >= 0 && !enSubida.quitados.contains(nombreArchivo))) {
+            return true;
+        }
+        refrescarIndice(clienteFTP);
+        return indice.contiene(nombreArchivo);
+    }
+
+    /**
+     * Longitud del contenido cifrado de un archivo empaquetado, sin volver a leer el índice remoto si la copia local
+     * es reciente.
+     * @param nombreArchivo El nombre del archivo local.
+     * @return La longitud, o -1 si el archivo no está empaquetado.
+     * @throws IOException Si no se puede cargar el índice remoto.
+     */
+    public synchronized long longitudEmpaquetada(String nombreArchivo) throws IOException {
+        asegurarIndice();
+        for (Lote lote : new Lote[]{enCurso, enSubida}) {
+            int pendiente = lote == null || lote.quitados.contains(nombreArchivo) ? -1 : lote.buscar(nombreArchivo);
+            if (pendiente >= 0) {
+                return lote.rangos.get(pendiente)[1];
+            }
+        }
+        IndiceDePaquetes.Ubicacion ubicacion = indice.buscar(nombreArchivo);
+        return ubicacion == null ? -1 : ubicacion.longitud;
+    }
+
+    /**
+     * Extrae un archivo empaquetado con una lectura por rango y guarda su contenido cifrado,
+     * igual que una descarga de un archivo individual. Antes se vuelve a leer el índice remoto para extraer la última versión.
+     * @param clienteFTP Cliente FTP conectado.
+     * @param nombreArchivo El nombre del archivo local.
+     * @param rutaLocal Ruta donde guardar el contenido cifrado.
+     * @return true si se extrajo el archivo.
+     */
+    public boolean extraer(FTPClient clienteFTP, String nombreArchivo, String rutaLocal) {
+        try {
+            IndiceDePaquetes.Ubicacion ubicacion;
+            synchronized (subida) { // Espera a que termine un vaciado que pueda llevar el archivo
+                boolean pendiente;
+                synchronized (this) {
+                    pendiente = enCurso.buscar(nombreArchivo) >= 0;
+                }
+                if (pendiente) {
+                    vaciar(); // Todavía no está en el servidor
+                }
+                synchronized (this) {
+                    refrescarIndice(clienteFTP); // Otro equipo puede haber subido una versión más reciente
+                    ubicacion = indice.buscar(nombreArchivo);
+                }
+            }
+            if (ubicacion == null) {
+                log.error("paquete.extraccion.fallo", "El archivo no está en el índice de paquetes: {}", nombreArchivo);
+                return false;
+            }
+            byte[] cifrado = FTPUtil.downloadRange(clienteFTP, nombrePaquete(ubicacion), ubicacion.offset, ubicacion.longitud);
+            Files.write(Paths.get(rutaLocal), cifrado);
+            log.info("paquete.extraido", "Archivo extraído del paquete {}: {} -> {}", ubicacion.archivoPaquete(), nombreArchivo, rutaLocal);
+            return true;
+        } catch (IOException e) {
+            log.error("paquete.extraccion.error", "Error al extraer el archivo {}: {}", nombreArchivo, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Sube el paquete en curso y anexa al índice remoto los registros pendientes.
+     * El paquete se aparta y se sube sin tener el monitor, de modo que se pueden seguir añadiendo archivos;
+     * si la subida falla, sus archivos vuelven al paquete en curso (salvo los que tengan ya una versión más nueva
+     * o se hayan quitado) y los registros se conservan para el siguiente intento.
+     * @return true si no queda nada pendiente de subir.
+     * @throws IOException Si no se puede conectar con el servidor FTP.
+     */
+    public boolean vaciar() throws IOException {
+        synchronized (subida) {
+            Lote lote;
+            synchronized (this) {
+                if (vaciadoProgramado != null) {
+                    vaciadoProgramado.cancel(false);
+                    vaciadoProgramado = null;
+                }
+                if (enCurso.vacio() && !indice.hayPendientes()) {
+                    return true;
+                }
+                lote = enCurso.vacio() ? null : enCurso;
+                if (lote != null) {
+                    enSubida = lote;
+                    enCurso = nuevoLote();
+                }
+            }
+            boolean subido = false;
+            try {
+                FTPClient clienteFTP = FTPUtil.connectFTP();
+                if (clienteFTP == null) {
+                    throw new IOException("No se pudo conectar con el servidor FTP para subir el paquete en curso");
+                }
+                try {
+                    int numero = -1;
+                    synchronized (this) {
+                        asegurarDirectorio(clienteFTP);
+                        refrescarIndice(clienteFTP); // Lo anexado por otros equipos, antes de reservar números o compactar
+                        if (lote != null) {
+                            numero = indice.nuevoPaquete();
+                        }
+                    }
+                    if (lote != null && !subirPaquete(clienteFTP, lote, numero)) {
+                        return false;
+                    }
+                    subido = true;
+                    synchronized (this) {
+                        return subirIndice(clienteFTP);
+                    }
+                } finally {
+                    FTPUtil.disconnectFTP(clienteFTP);
+                }
+            } finally {
+                if (lote != null) {
+                    terminarSubida(lote, subido);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sube un paquete apartado, sin tener el monitor.
+     * @return true si el paquete quedó en el servidor con el tamaño correcto.
+     */
+    private boolean subirPaquete(FTPClient clienteFTP, Lote lote, int numero) throws IOException {
+        String archivoPaquete = IndiceDePaquetes.archivoPaquete(indice.getEquipo(), numero);
+        String nombreRemoto = directorioRemoto + "/" + archivoPaquete;
+        Path rutaLocal = Paths.get(LOCAL_ENCRYPTED_DIR, archivoPaquete);
+        byte[] contenido = lote.contenido.toByteArray();
+        Files.write(rutaLocal, contenido);
+        try {
+            Huella huella = Huella.de(contenido);
+            if (!FTPUtil.uploadFile(clienteFTP, rutaLocal.toString(), nombreRemoto)
+                    || VerificacionUtil.verificarTamano(clienteFTP, nombreRemoto, huella) != VerificacionUtil.Resultado.CORRECTO) {
+                log.error("paquete.subida.fallo", "Fallo al subir el paquete {}; se reintentará", nombreRemoto);
+                return false;
+            }
+            ManifiestoRemoto.getManifiesto().registrar(nombreRemoto, huella);
+        } finally {
+            Files.deleteIfExists(rutaLocal);
+        }
+        synchronized (this) {
+            int archivos = 0;
+            for (int i = 0; i < lote.nombres.size(); i++) {
+                String nombre = lote.nombres.get(i);
+                if (!lote.quitados.contains(nombre) && enCurso.buscar(nombre) < 0) { // Ni quitado ni sustituido durante la subida
+                    long[] rango = lote.rangos.get(i);
+                    indice.poner(nombre, new IndiceDePaquetes.Ubicacion(indice.getEquipo(), numero, rango[0], (int) rango[1],
+                            lote.huellas.get(i)));
+                    archivos++;
+                }
+            }
+            log.info("paquete.subido", "Paquete {} subido con {} archivos ({} bytes)", nombreRemoto, archivos, contenido.length);
+        }
+        return true;
+    }
+
+    /**
+     * Termina la subida de un paquete apartado. Si falló, sus archivos vuelven al paquete en curso, delante de los
+     * añadidos mientras tanto, salvo los quitados o sustituidos por una versión más nueva.
+     */
+    private synchronized void terminarSubida(Lote lote, boolean subido) {
+        enSubida = null;
+        if (subido) {
+            return;
+        }
+        Lote recuperado = nuevoLote();
+        byte[] datos = lote.contenido.toByteArray();
+        for (int i = 0; i < lote.nombres.size(); i++) {
+            String nombre = lote.nombres.get(i);
+            if (!lote.quitados.contains(nombre) && enCurso.buscar(nombre) < 0) {
+                long[] rango = lote.rangos.get(i);
+                recuperado.poner(nombre, Arrays.copyOfRange(datos, (int) rango[0], (int) (rango[0] + rango[1])), lote.huellas.get(i));
+            }
+        }
+        datos = enCurso.contenido.toByteArray();
+        for (int i = 0; i < enCurso.nombres.size(); i++) {
+            long[] rango = enCurso.rangos.get(i);
+            recuperado.poner(enCurso.nombres.get(i), Arrays.copyOfRange(datos, (int) rango[0], (int) (rango[0] + rango[1])),
+                    enCurso.huellas.get(i));
+        }
+        enCurso = recuperado;
+        programarVaciado();
+    }
+
+    /**
+     * Nombres de los archivos que todavía no están en ningún paquete subido.
+     */
+    public synchronized List<String> nombresSinSubir() {
+        List<String> nombres = new ArrayList<>(enCurso.nombres);
+        if (enSubida != null) {
+            for (String nombre : enSubida.nombres) {
+                if (!enSubida.quitados.contains(nombre) && !nombres.contains(nombre)) {
+                    nombres.add(nombre);
+                }
+            }
+        }
+        return nombres;
+    }
+
+    private boolean subirIndice(FTPClient clienteFTP) throws IOException {
+        if (!indice.hayPendientes()) {
+            return true;
+        }
+        byte[] completo = indice.necesitaCompactar() ? indice.completo() : null;
+        if (completo != null && !reemplazarIndice(clienteFTP, completo)) {
+            completo = null; // Se anexan los pendientes y se compactará en otro vaciado
+        }
+        if (completo == null && !FTPUtil.appendFile(clienteFTP, indice.diarioPendiente(), indiceRemoto)) {
+            log.error("paquete.indice.fallo", "Fallo al actualizar el índice de paquetes; se reintentará");
+            programarVaciado();
+            return false;
+        }
+        indice.confirmarPendientes(completo);
+        if (completo != null) {
+            borrarPaquetesSinUso(clienteFTP);
+        }
+        return true;
+    }
+
+    /**
+     * Sustituye el índice remoto por uno compactado sin dejar de tener en ningún momento una copia completa:
+     * se sube con un nombre temporal, se comprueba su tamaño y después se renombra sobre el índice anterior.
+     * Si el servidor no permite renombrar sobre un archivo existente, el índice anterior se aparta primero
+     * y se recupera si el segundo renombrado falla.
+     * Si otro equipo ha anexado registros desde la última lectura, no se sustituye: se perderían sus registros.
+     * @param completo El índice completo.
+     * @return true si el índice remoto se sustituyó.
+     */
+    private boolean reemplazarIndice(FTPClient clienteFTP, byte[] completo) throws IOException {
+        String temporal = indiceRemoto + ".tmp";
+        String anterior = indiceRemoto + ".old";
+        Path rutaLocal = Paths.get(LOCAL_ENCRYPTED_DIR, "indice.idx");
+        Files.write(rutaLocal, completo);
+        try {
+            if (!FTPUtil.uploadFile(clienteFTP, rutaLocal.toString(), temporal)
+                    || VerificacionUtil.verificarTamano(clienteFTP, temporal, Huella.de(completo)) != VerificacionUtil.Resultado.CORRECTO) {
+                FTPUtil.deleteFile(clienteFTP, temporal); // El índice actual sigue intacto
+                return false;
+            }
+        } finally {
+            Files.deleteIfExists(rutaLocal);
+        }
+        if (!indiceSinCambios(clienteFTP)) {
+            log.info("paquete.compactado.aplazado", "Otro equipo ha modificado el índice de paquetes; se aplaza la compactación");
+            FTPUtil.deleteFile(clienteFTP, temporal);
+            return false;
+        }
+        if (clienteFTP.rename(temporal, indiceRemoto)) {
+            return true;
+        }
+        if (!clienteFTP.rename(indiceRemoto, anterior)) {
+            FTPUtil.deleteFile(clienteFTP, temporal);
+            return false;
+        }
+        if (!clienteFTP.rename(temporal, indiceRemoto)) {
+            clienteFTP.rename(anterior, indiceRemoto); // Se recupera el índice anterior
+            FTPUtil.deleteFile(clienteFTP, temporal);
+            return false;
+        }
+        FTPUtil.deleteFile(clienteFTP, anterior);
+        return true;
+    }
+
+    /**
+     * Borra los paquetes de este equipo que ya no tienen ninguna entrada viva en el índice.
+     */
+    private void borrarPaquetesSinUso(FTPClient clienteFTP) throws IOException {
+        int borrados = 0;
+        for (String archivoPaquete : indice.paquetesSinUso()) {
+            if (!paquetesBorrados.add(archivoPaquete)) {
+                continue; // Ya se borró en una compactación anterior
+            }
+            String nombreRemoto = directorioRemoto + "/" + archivoPaquete;
+            if (clienteFTP.deleteFile(nombreRemoto)) { // Puede no existir si lo borró otra ejecución
+                borrados++;
+            }
+            ManifiestoRemoto.getManifiesto().olvidar(nombreRemoto);
+        }
+        log.info("paquete.compactado", "Índice de paquetes compactado: {} entradas, {} paquetes sin uso borrados", indice.tamano(), borrados);
+    }
+
+    /**
+     * Carga el índice remoto la primera vez que se necesita y lo vuelve a leer si la copia local tiene más de
+     * empaquetado.refrescoMs, para no quitar ni buscar entradas con una copia muy antigua.
+     */
+    private void asegurarIndice() throws IOException {
+        if (indiceCargado && System.nanoTime() - ultimoRefresco < TimeUnit.MILLISECONDS.toNanos(refrescoMs)) {
+            return;
+        }
+        FTPClient clienteFTP = FTPUtil.connectFTP();
+        try {
+            if (indiceCargado) {
+                refrescarIndice(clienteFTP);
+                return;
+            }
+            byte[] diario = FTPUtil.downloadBytes(clienteFTP, indiceRemoto);
+            if (diario == null && clienteFTP.rename(indiceRemoto + ".old", indiceRemoto)) {
+                // Una compactación se interrumpió entre los dos renombrados: se recupera el índice anterior
+                log.warn("paquete.indice.recuperado", "Índice de paquetes recuperado de {}.old", indiceRemoto);
+                diario = FTPUtil.downloadBytes(clienteFTP, indiceRemoto);
+            }
+            if (diario != null) {
+                indice.cargar(diario);
+            }
+            indiceCargado = true;
+            ultimoRefresco = System.nanoTime();
+            log.info("paquete.indice", "Índice de paquetes cargado: {} archivos empaquetados", indice.tamano());
+        } finally {
+            FTPUtil.disconnectFTP(clienteFTP);
+        }
+    }
+
+    /**
+     * Lee del índice remoto lo anexado desde la última lectura. Para comprobar que el diario es el mismo que se leyó
+     * (y no uno compactado por otro equipo) se vuelven a leer también sus últimos bytes ya reproducidos;
+     * si no coinciden o el diario es más corto, se carga entero.
+     */
+    private void refrescarIndice(FTPClient clienteFTP) throws IOException {
+        long tamano = tamanoIndice(clienteFTP);
+        long leidos = indice.getBytesRemotos();
+        byte[] cola = indice.getColaRemota();
+        ultimoRefresco = System.nanoTime();
+        if (tamano < 0 || (tamano == leidos && cola.length == 0)) {
+            return; // Sin índice remoto (o vacío) todavía
+        }
+        if (tamano >= leidos) {
+            byte[] tramo = FTPUtil.downloadRange(clienteFTP, indiceRemoto, leidos - cola.length, (int) (tamano - leidos + cola.length));
+            if (Arrays.equals(tramo, 0, cola.length, cola, 0, cola.length)) {
+                if (tramo.length > cola.length) {
+                    indice.anexar(Arrays.copyOfRange(tramo, cola.length, tramo.length));
+                    log.debug("paquete.indice.refrescado", "Índice de paquetes actualizado: {} archivos empaquetados", indice.tamano());
+                }
+                return;
+            }
+        }
+        byte[] diario = FTPUtil.downloadBytes(clienteFTP, indiceRemoto);
+        if (diario != null) {
+            indice.cargar(diario);
+            log.info("paquete.indice", "Índice de paquetes compactado por otro equipo, cargado de nuevo: {} archivos empaquetados", indice.tamano());
+            borrarPaquetesSinUso(clienteFTP); // Los paquetes propios que la compactación ha dejado sin entradas
+        }
+    }
+
+    /**
+     * Indica si el índice remoto sigue siendo exactamente el que se leyó por última vez.
+     */
+    private boolean indiceSinCambios(FTPClient clienteFTP) throws IOException {
+        long leidos = indice.getBytesRemotos();
+        byte[] cola = indice.getColaRemota();
+        if (tamanoIndice(clienteFTP) != leidos) {
+            return false;
+        }
+        return cola.length == 0
+                || Arrays.equals(FTPUtil.downloadRange(clienteFTP, indiceRemoto, leidos - cola.length, cola.length), cola);
+    }
+
+    /**
+     * Tamaño del índice remoto (SIZE), o -1 si no existe.
+     */
+    private long tamanoIndice(FTPClient clienteFTP) throws IOException {
+        String tamano = clienteFTP.getSize(indiceRemoto);
+        if (tamano == null) {
+            if (FTPReply.isNegativePermanent(clienteFTP.getReplyCode())) {
+                return -1;
+            }
+            throw new IOException("No se pudo leer el tamaño de " + indiceRemoto + ": " + clienteFTP.getReplyString().trim());
+        }
+        try {
+            return Long.parseLong(tamano.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Tamaño no válido de " + indiceRemoto + ": " + tamano);
+        }
+    }
+
+    /**
+     * Identificador de este equipo para los nombres de sus paquetes: empaquetado.equipo o, si no está configurado,
+     * uno aleatorio que se guarda en local.encryptedDir/equipo.id para que sea el mismo en cada arranque.
+     */
+    private static String equipo() {
+        String configurado = config.getProperty("empaquetado.equipo", "").trim();
+        if (!configurado.isEmpty()) {
+            return configurado;
+        }
+        Path ruta = Paths.get(LOCAL_ENCRYPTED_DIR, "equipo.id");
+        String nuevo = UUID.randomUUID().toString().substring(0, 8);
+        try {
+            if (Files.exists(ruta)) {
+                String guardado = Files.readString(ruta).trim();
+                if (!guardado.isEmpty()) {
+                    return guardado;
+                }
+            }
+            Files.createDirectories(ruta.getParent());
+            Files.writeString(ruta, nuevo);
+        } catch (IOException e) {
+            log.error("paquete.equipo.error", "No se pudo guardar el identificador de equipo en {}: {}; se usa {} en esta ejecución",
+                    ruta, e.getMessage(), nuevo);
+        }
+        return nuevo;
+    }
+
+    private void asegurarDirectorio(FTPClient clienteFTP) throws IOException {
+        if (!FTPUtil.directoryExists(clienteFTP, directorioRemoto)) {
+            FTPUtil.createDirectory(clienteFTP, directorioRemoto);
+        }
+    }
+
+    private void programarVaciado() {
+        if (vaciadoProgramado == null) {
+            vaciadoProgramado = temporizador.schedule(this::vaciarProgramado, esperaMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void vaciarProgramado() {
+        synchronized (this) {
+            vaciadoProgramado = null;
+        }
+        try {
+            vaciar();
+        } catch (IOException e) {
+            log.error("paquete.vaciado.error", "Error al subir el paquete en curso: {}", e.getMessage());
+            programarVaciado();
+        }
+    }
+
+    private String nombrePaquete(IndiceDePaquetes.Ubicacion ubicacion) {
+        return directorioRemoto + "/" + ubicacion.archivoPaquete();
+    }
+
+    private Lote nuevoLote() {
+        return new Lote(Math.min(tamPaquete + (int) umbral + 16, 64 << 20));
+    }
+
+    /**
+     * Archivos cifrados de un paquete todavía no subido, con una sola entrada por archivo.
+     */
+    private static final class Lote {
+        final ByteArrayOutputStream contenido; // Contenido cifrado de los archivos, uno detrás de otro
+        final List<String> nombres = new ArrayList<>(); // Archivos del paquete, en orden
+        final List<long[]> rangos = new ArrayList<>(); // (offset, longitud) de cada archivo
+        final List<String> huellas = new ArrayList<>(); // MD5 del contenido cifrado de cada archivo
+        final Set<String> quitados = new HashSet<>(); // Quitados mientras el paquete se subía: no se indexan
+
+        Lote(int capacidad) {
+            this.contenido = new ByteArrayOutputStream(capacidad);
+        }
+
+        int buscar(String nombre) {
+            return nombres.indexOf(nombre);
+        }
+
+        int tamano() {
+            return contenido.size();
+        }
+
+        boolean vacio() {
+            return nombres.isEmpty();
+        }
+
+        /**
+         * Añade un archivo al final, sustituyendo su versión anterior si la había.
+         */
+        void poner(String nombre, byte[] cifrado, String md5) {
+            quitar(nombre);
+            rangos.add(new long[]{contenido.size(), cifrado.length});
+            nombres.add(nombre);
+            huellas.add(md5);
+            contenido.write(cifrado, 0, cifrado.length);
+        }
+
+        /**
+         * Quita un archivo y sus bytes; los archivos que van detrás se desplazan.
+         * @return true si el archivo estaba en el paquete.
+         */
+        boolean quitar(String nombre) {
+            int i = nombres.indexOf(nombre);
+            if (i < 0) {
+                return false;
+            }
+            long[] rango = rangos.get(i);
+            byte[] datos = contenido.toByteArray();
+            int fin = (int) (rango[0] + rango[1]);
+            contenido.reset();
+            contenido.write(datos, 0, (int) rango[0]);
+            contenido.write(datos, fin, datos.length - fin);
+            for (int j = i + 1; j < rangos.size(); j++) {
+                rangos.get(j)[0] -= rango[1];
+            }
+            nombres.remove(i);
+            rangos.remove(i);
+            huellas.remove(i);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.drive.ahv.sync;
+
+import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detector de cambios por sondeo, para sistemas de archivos donde WatchService pierde eventos
+ * (NFS, SMB, algunas capas de contenedores).
+ * En cada pasada lista el directorio local, consulta los atributos de los archivos en paralelo y compara
+ * (tamaño, fecha de modificación, fileKey) con la instantánea anterior, guardada en una TablaDeEstados.
+ * El intervalo entre pasadas se adapta: se acorta cuando hay cambios y se alarga cuando no los hay.
+ * Emite los mismos eventos que MonitorDeArchivos.
+ */
+public class EscanerPorSondeo implements DetectorDeCambios {
+
+    private static final Configuracion config = Configuracion.getConfig(); // Instancia de Configuration
+    private static final String LOCAL_DIR = config.getProperty("local.dir"); // Directorio local a monitorizar
+    private static final Registro log = Registro.de(EscanerPorSondeo.class); // Registro de eventos
+
+    private final Sincronizacion syncService; // Servicio de sincronización que usará el escáner
+    private final Path dir; // Ruta del directorio a monitorizar
+    private final long intervaloMinimoMs; // Intervalo mínimo entre pasadas
+    private final long intervaloMaximoMs; // Intervalo máximo entre pasadas
+    private final int hilos; // Hilos para consultar atributos en paralelo
+    private final ExecutorService consultas; // Ejecutor de las consultas de atributos
+    private final CountDownLatch parada = new CountDownLatch(1); // Se libera al detener el escáner
+    private TablaDeEstados anterior = new TablaDeEstados(1024); // Instantánea de la pasada anterior
+    private TablaDeEstados actual = new TablaDeEstados(1024); // Tabla que se rellena en la pasada en curso
+
+    /**
+     * Constructor de EscanerPorSondeo.
+     * Lee escaner.intervaloMinMs, escaner.intervaloMaxMs y escaner.hilos de la configuración.
+     * @param syncService Instancia de Sincronizacion para realizar la sincronización.
+     */
+    public EscanerPorSondeo(Sincronizacion syncService) {
+        this.syncService = syncService;
+        this.dir = Paths.get(LOCAL_DIR);
+        this.intervaloMinimoMs = Long.parseLong(config.getProperty("escaner.intervaloMinMs", "500"));
+        this.intervaloMaximoMs = Math.max(intervaloMinimoMs, Long.parseLong(config.getProperty("escaner.intervaloMaxMs", "10000")));
+        this.hilos = Math.max(1, Integer.parseInt(config.getProperty("escaner.hilos", "8")));
+        this.consultas = Executors.newFixedThreadPool(hilos, r -> {
+            Thread hilo = new Thread(r, "escaner-atributos");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    /**
+     * Método run, implementado de la interfaz Runnable.
+     * Toma la instantánea inicial sin emitir eventos (la sincronización inicial ya subió esos archivos)
+     * y después compara cada pasada con la anterior.
+     * Si una pasada no puede listar el directorio (ESTALE o EIO transitorios en NFS/SMB), se registra el error,
+     * se alarga el intervalo y se reintenta; la instantánea anterior se conserva. Si lo que falla es la consulta
+     * de un archivo concreto, ese archivo conserva su estado anterior: no se da por borrado ni por modificado.
+     */
+    @Override
+    public void run() {
+        log.info("escaner.inicio", "Escáner por sondeo iniciado para el directorio: {}", LOCAL_DIR);
+        try {
+            boolean instantanea = false; // Hasta tomar la instantánea inicial no se emiten eventos
+            long intervalo = 0;
+            while (!parada.await(intervalo, TimeUnit.MILLISECONDS)) {
+                long inicio = System.nanoTime();
+                try {
+                    int cambios = escanear(instantanea);
+                    long duracionMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+                    // Con cambios (o tras la instantánea inicial) se vuelve al mínimo; sin ellos, el intervalo crece
+                    // un 50 % hasta el máximo. Nunca baja del doble de lo que tarda una pasada, para acotar el coste
+                    // en directorios grandes.
+                    intervalo = cambios > 0 || !instantanea ? intervaloMinimoMs : Math.min(intervaloMaximoMs, intervalo + intervalo / 2);
+                    intervalo = Math.max(intervalo, 2 * duracionMs);
+                    instantanea = true;
+                    log.debug("escaner.pasada", "Pasada en {} ms con {} cambios; siguiente en {} ms", duracionMs, cambios, intervalo);
+                } catch (IOException e) {
+                    intervalo = Math.min(intervaloMaximoMs, Math.max(intervaloMinimoMs, intervalo * 2)); // Espera creciente entre reintentos
+                    log.error("escaner.error", "Error durante el escaneo de archivos: {}; reintento en {} ms", e.getMessage(), intervalo);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            consultas.shutdownNow();
+            log.info("escaner.fin", "Hilo del escáner por sondeo finalizado.");
+        }
+    }
+
+    /**
+     * Realiza una pasada: lista el directorio, consulta los atributos en paralelo y compara con la instantánea anterior.
+     * @param emitir false para solo tomar la instantánea, sin notificar cambios.
+     * @return El número de cambios detectados.
+     * @throws IOException Si no se puede listar el directorio.
+     * @throws InterruptedException Si el hilo es interrumpido mientras espera las consultas.
+     */
+    private int escanear(boolean emitir) throws IOException, InterruptedException {
+        List<Path> rutas = new ArrayList<>(Math.max(16, anterior.tamano()));
+        try (DirectoryStream<Path> contenido = Files.newDirectoryStream(dir)) {
+            for (Path ruta : contenido) {
+                rutas.add(ruta);
+            }
+        }
+
+        int n = rutas.size();
+        long[] tamanos = new long[n];
+        long[] modificaciones = new long[n];
+        long[] fileKeys = new long[n];
+        boolean[] archivos = new boolean[n]; // false si es un directorio o desapareció antes de consultarlo
+        boolean[] errores = new boolean[n]; // true si no se pudieron leer los atributos (ESTALE, EIO, EACCES...)
+        consultarAtributos(rutas, tamanos, modificaciones, fileKeys, archivos, errores);
+
+        actual.limpiar(n);
+        int cambios = 0;
+        for (int i = 0; i < n; i++) {
+            if (errores[i]) {
+                // Error transitorio: se conserva el estado anterior para no borrar el archivo en el servidor
+                int posicion = anterior.buscar(rutas.get(i).getFileName().toString());
+                if (posicion >= 0) {
+                    actual.copiar(anterior, posicion);
+                    anterior.marcarVisto(posicion);
+                }
+                continue;
+            }
+            if (!archivos[i]) {
+                continue;
+            }
+            String nombre = rutas.get(i).getFileName().toString();
+            actual.poner(nombre, tamanos[i], modificaciones[i], fileKeys[i]);
+            int posicion = anterior.buscar(nombre);
+            if (posicion >= 0) {
+                anterior.marcarVisto(posicion);
+            }
+            if (emitir && (posicion < 0 || !anterior.igual(posicion, tamanos[i], modificaciones[i], fileKeys[i]))) {
+                cambios++;
+                notificar(rutas.get(i), posicion < 0 ? "created" : "modified");
+            }
+        }
+        if (emitir) {
+            for (int i = 0; i < anterior.capacidad(); i++) {
+                if (anterior.ocupada(i) && !anterior.visto(i)) {
+                    cambios++;
+                    notificar(dir.resolve(anterior.nombre(i)), "deleted");
+                }
+            }
+        }
+
+        TablaDeEstados libre = anterior; // Se reutiliza en la siguiente pasada
+        anterior = actual;
+        actual = libre;
+        return cambios;
+    }
+
+    /**
+     * Consulta size, lastModifiedTime y fileKey de las rutas repartiéndolas en bloques entre los hilos de consulta.
+     * Cada bloque escribe en posiciones distintas de los arrays de resultado.
+     */
+    private void consultarAtributos(List<Path> rutas, long[] tamanos, long[] modificaciones, long[] fileKeys,
+                                    boolean[] archivos, boolean[] errores) throws InterruptedException {
+        int n = rutas.size();
+        int bloques = Math.min(hilos, Math.max(1, n / 64)); // Con pocos archivos no compensa repartir
+        int porBloque = (n + bloques - 1) / Math.max(1, bloques);
+        List<Runnable> tareas = new ArrayList<>(bloques);
+        for (int desde = 0; desde < n; desde += porBloque) {
+            int inicio = desde;
+            int fin = Math.min(n, desde + porBloque);
+            tareas.add(() -> {
+                for (int i = inicio; i < fin; i++) {
+                    try {
+                        BasicFileAttributes atributos = Files.readAttributes(rutas.get(i), BasicFileAttributes.class);
+                        if (atributos.isRegularFile()) {
+                            tamanos[i] = atributos.size();
+                            modificaciones[i] = atributos.lastModifiedTime().to(TimeUnit.NANOSECONDS); // Máxima resolución disponible
+                            Object fileKey = atributos.fileKey();
+                            fileKeys[i] = fileKey == null ? 0 : fileKey.hashCode();
+                            archivos[i] = true;
+                        }
+                    } catch (NoSuchFileException e) {
+                        // Borrado entre el listado y la consulta: se trata como ausente
+                    } catch (IOException e) {
+                        errores[i] = true;
+                        log.warn("escaner.atributos.error", "No se pudieron leer los atributos de {}: {}", rutas.get(i), e.getMessage());
+                    }
+                }
+            });
+        }
+        if (tareas.size() == 1) {
+            tareas.get(0).run(); // Un solo bloque: se consulta en el propio hilo del escáner
+        } else {
+            List<Callable<Object>> llamadas = new ArrayList<>(tareas.size());
+            for (Runnable tarea : tareas) {
+                llamadas.add(Executors.callable(tarea));
+            }
+            consultas.invokeAll(llamadas);
+        }
+    }
+
+    /**
+     * Notifica un cambio al servicio de sincronización, igual que MonitorDeArchivos.
+     */
+    private void notificar(Path archivo, String tipoEvento) {
+        try {
+            if ("deleted".equals(tipoEvento)) {
+                log.info("monitor.evento", "Archivo borrado: {}", archivo);
+                syncService.deleteRemoteFile(archivo.getFileName().toString());
+            } else {
+                log.info("monitor.evento", "Archivo {}: {}", "created".equals(tipoEvento) ? "creado" : "modificado", archivo);
+                syncService.synchronizeFile(archivo.toFile(), tipoEvento);
+            }
+        } catch (IOException e) {
+            log.error("monitor.evento.error", "Error al procesar el evento del archivo {}: {}", archivo, e.getMessage());
+        }
+    }
+
+    /**
+     * Detiene el escáner. La pasada en curso termina y no se inician más.
+     */
+    @Override
+    public void stopMonitor() {
+        parada.countDown();
+        log.info("escaner.detenido", "Escáner por sondeo detenido para el directorio: {}", LOCAL_DIR);
+    }
+}
@@ -0,0 +1,317 @@
+package com.drive.ahv.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Índice de los archivos empaquetados: nombre de archivo -> (equipo, paquete, offset, longitud).
+ * En remoto se guarda como un diario de solo anexado: cada registro pone o quita una entrada,
+ * de modo que cada vaciado del empaquetador solo sube los registros nuevos. Al cargarlo se reproducen
+ * los registros en orden; cuando hay muchos registros obsoletos se reescribe completo (compactación).
+ *
+ * Varios equipos comparten el mismo diario. Cada paquete lleva en su nombre el identificador del equipo que lo
+ * subió, así que los números de paquete solo se reservan entre los paquetes propios. Antes de reservar números
+ * o de compactar, el empaquetador lee lo que otros equipos hayan anexado desde la última lectura (anexar).
+ *
+ * Formato de cada registro: byte tipo (1 = poner, 2 = quitar, 3 = poner con equipo, 4 = poner con equipo y huella),
+ * nombre (UTF modificado) y, si es "poner con equipo", el equipo (UTF modificado), int paquete, long offset
+ * e int longitud; el tipo 4 añade el MD5 del contenido cifrado (UTF modificado, en hexadecimal), que permite
+ * reconocer un archivo sin cambios sin volver a subirlo.
+ * Los registros de tipo 1 (sin equipo, de versiones anteriores) apuntan a paquetes paq_N.pak.
+ */
+final class IndiceDePaquetes {
+
+    private static final byte PONER = 1;
+    private static final byte QUITAR = 2;
+    private static final byte PONER_EQUIPO = 3;
+    private static final byte PONER_HUELLA = 4;
+    private static final String SIN_EQUIPO = ""; // Paquetes de versiones anteriores, sin equipo en el nombre
+    private static final int TAMANO_COLA = 32; // Bytes finales del diario leído que se guardan para detectar compactaciones
+
+    /**
+     * Ubicación de un archivo cifrado dentro de un paquete.
+     */
+    static final class Ubicacion {
+        final String equipo; // Equipo que subió el paquete
+        final int paquete; // Número del paquete dentro de los del equipo
+        final long offset; // Posición del primer byte cifrado dentro del paquete
+        final int longitud; // Longitud en bytes del contenido cifrado
+        final String md5; // MD5 del contenido cifrado, o null en los registros que no lo guardan
+
+        Ubicacion(String equipo, int paquete, long offset, int longitud, String md5) {
+            this.equipo = equipo;
+            this.paquete = paquete;
+            this.offset = offset;
+            this.longitud = longitud;
+            this.md5 = md5;
+        }
+
+        /**
+         * Nombre del archivo del paquete (sin el directorio de paquetes).
+         */
+        String archivoPaquete() {
+            return IndiceDePaquetes.archivoPaquete(equipo, paquete);
+        }
+    }
+
+    private final String equipo; // Identificador de este equipo
+    private final Map<String, Ubicacion> entradas = new HashMap<>();
+    private final ByteArrayOutputStream pendientes = new ByteArrayOutputStream(); // Registros aún no subidos
+    private final DataOutputStream salidaPendientes = new DataOutputStream(pendientes);
+    private int registrosPendientes; // Registros en el buffer de pendientes
+    private int registrosRemotos; // Registros leídos del diario remoto
+    private long bytesRemotos; // Bytes del diario remoto ya reproducidos
+    private byte[] colaRemota = new byte[0]; // Últimos bytes reproducidos del diario remoto
+    private int siguientePaquete; // Número que tendrá el próximo paquete de este equipo
+    private int siguienteSinEquipo; // Mayor número de paquete sin equipo visto, más uno
+
+    /**
+     * Constructor de IndiceDePaquetes.
+     * @param equipo Identificador de este equipo, que se usa en los nombres de sus paquetes.
+     */
+    IndiceDePaquetes(String equipo) {
+        this.equipo = equipo;
+    }
+
+    /**
+     * Nombre del archivo de un paquete (sin el directorio de paquetes).
+     */
+    static String archivoPaquete(String equipo, int paquete) {
+        return equipo.isEmpty() ? "paq_" + paquete + ".pak" : "paq_" + equipo + "_" + paquete + ".pak";
+    }
+
+    /**
+     * Reproduce un diario completo descargado del servidor, descartando lo leído antes
+     * (otro equipo lo ha compactado). Los registros pendientes se vuelven a aplicar encima.
+     * @param diario El contenido del diario remoto.
+     * @throws IOException Si el diario está corrupto.
+     */
+    void cargar(byte[] diario) throws IOException {
+        entradas.clear();
+        registrosRemotos = 0;
+        bytesRemotos = 0;
+        colaRemota = new byte[0];
+        anexar(diario);
+    }
+
+    /**
+     * Reproduce los registros que otros equipos (o este mismo) han anexado al diario remoto desde la última lectura.
+     * Un registro incompleto al final (otro equipo lo está anexando) se deja para la siguiente lectura.
+     * Los registros pendientes se vuelven a aplicar encima, porque se anexarán después de los leídos.
+     * @param tramo Los bytes del diario remoto a partir de getBytesRemotos().
+     * @throws IOException Si el diario está corrupto.
+     */
+    void anexar(byte[] tramo) throws IOException {
+        int leidos = aplicar(tramo, true);
+        bytesRemotos += leidos;
+        colaRemota = cola(colaRemota, tramo, leidos);
+        if (registrosPendientes > 0) {
+            aplicar(pendientes.toByteArray(), false);
+        }
+    }
+
+    /**
+     * Aplica los registros completos de un tramo de diario.
+     * @param remotos true si los registros vienen del diario remoto y cuentan para decidir la compactación.
+     * @return El número de bytes de registros completos aplicados.
+     */
+    private int aplicar(byte[] tramo, boolean remotos) throws IOException {
+        int aplicados = 0;
+        try (DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(tramo))) {
+            while (aplicados < tramo.length) {
+                int tipo = entrada.readByte();
+                String nombre = entrada.readUTF();
+                if (tipo == PONER || tipo == PONER_EQUIPO || tipo == PONER_HUELLA) {
+                    String equipoPaquete = tipo == PONER ? SIN_EQUIPO : entrada.readUTF();
+                    int paquete = entrada.readInt();
+                    long offset = entrada.readLong();
+                    int longitud = entrada.readInt();
+                    Ubicacion ubicacion = new Ubicacion(equipoPaquete, paquete, offset, longitud,
+                            tipo == PONER_HUELLA ? entrada.readUTF() : null);
+                    entradas.put(nombre, ubicacion);
+                    if (equipo.equals(equipoPaquete)) {
+                        siguientePaquete = Math.max(siguientePaquete, ubicacion.paquete + 1);
+                    } else if (SIN_EQUIPO.equals(equipoPaquete)) {
+                        siguienteSinEquipo = Math.max(siguienteSinEquipo, ubicacion.paquete + 1);
+                    }
+                } else if (tipo == QUITAR) {
+                    entradas.remove(nombre);
+                } else {
+                    throw new IOException("Registro desconocido en el índice de paquetes: " + tipo);
+                }
+                aplicados = tramo.length - entrada.available();
+                if (remotos) {
+                    registrosRemotos++;
+                }
+            }
+        } catch (EOFException e) {
+            // Registro incompleto al final del tramo
+        }
+        return aplicados;
+    }
+
+    Ubicacion buscar(String nombre) {
+        return entradas.get(nombre);
+    }
+
+    boolean contiene(String nombre) {
+        return entradas.containsKey(nombre);
+    }
+
+    int tamano() {
+        return entradas.size();
+    }
+
+    /**
+     * Bytes del diario remoto ya reproducidos: a partir de aquí empieza lo que falta por leer.
+     */
+    long getBytesRemotos() {
+        return bytesRemotos;
+    }
+
+    /**
+     * Últimos bytes reproducidos del diario remoto (hasta TAMANO_COLA). Si al volver a leerlos en la misma posición
+     * no coinciden, otro equipo ha compactado el diario y hay que cargarlo entero.
+     */
+    byte[] getColaRemota() {
+        return colaRemota;
+    }
+
+    /**
+     * Reserva el número del siguiente paquete de este equipo.
+     */
+    int nuevoPaquete() {
+        return siguientePaquete++;
+    }
+
+    String getEquipo() {
+        return equipo;
+    }
+
+    void poner(String nombre, Ubicacion ubicacion) throws IOException {
+        entradas.put(nombre, ubicacion);
+        escribirPoner(salidaPendientes, nombre, ubicacion);
+        registrosPendientes++;
+    }
+
+    /**
+     * Quita un archivo del índice.
+     * @return true si el archivo estaba en el índice.
+     */
+    boolean quitar(String nombre) throws IOException {
+        if (entradas.remove(nombre) == null) {
+            return false;
+        }
+        salidaPendientes.writeByte(QUITAR);
+        salidaPendientes.writeUTF(nombre);
+        registrosPendientes++;
+        return true;
+    }
+
+    boolean hayPendientes() {
+        return pendientes.size() > 0;
+    }
+
+    /**
+     * Registros que faltan por añadir al diario remoto.
+     */
+    byte[] diarioPendiente() {
+        return pendientes.toByteArray();
+    }
+
+    /**
+     * Indica si conviene reescribir el diario completo: más de la mitad de sus registros están obsoletos.
+     */
+    boolean necesitaCompactar() {
+        int total = registrosRemotos + registrosPendientes;
+        return total > 1000 && total > 2 * entradas.size();
+    }
+
+    /**
+     * Serializa el índice completo como un diario con un registro "poner" por entrada.
+     */
+    byte[] completo() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entradas.size() * 48);
+        DataOutputStream salida = new DataOutputStream(bytes);
+        for (Map.Entry<String, Ubicacion> entrada : entradas.entrySet()) {
+            escribirPoner(salida, entrada.getKey(), entrada.getValue());
+        }
+        salida.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Marca los registros pendientes como subidos.
+     * Si se anexaron, no se cuentan todavía como leídos: se vuelven a leer en la siguiente lectura del diario,
+     * en el orden en que quedaron respecto a los de otros equipos.
+     * @param compactado El índice completo subido en lugar de anexar los pendientes, o null si se anexaron.
+     */
+    void confirmarPendientes(byte[] compactado) {
+        if (compactado != null) {
+            registrosRemotos = entradas.size();
+            bytesRemotos = compactado.length;
+            colaRemota = cola(new byte[0], compactado, compactado.length);
+        }
+        pendientes.reset();
+        registrosPendientes = 0;
+    }
+
+    /**
+     * Paquetes que ya no contienen ninguna entrada viva y se pueden borrar: solo los de este equipo y los de
+     * versiones anteriores (sin equipo). Los de otros equipos los borra su propio equipo, que es el único que sabe
+     * si un paquete recién subido tiene todavía sus registros por anexar.
+     * @return Los nombres de archivo de los paquetes.
+     */
+    List<String> paquetesSinUso() {
+        BitSet propios = new BitSet(siguientePaquete);
+        propios.set(0, siguientePaquete);
+        BitSet sinEquipo = new BitSet(siguienteSinEquipo);
+        sinEquipo.set(0, siguienteSinEquipo);
+        for (Ubicacion ubicacion : entradas.values()) {
+            if (equipo.equals(ubicacion.equipo)) {
+                propios.clear(ubicacion.paquete);
+            } else if (SIN_EQUIPO.equals(ubicacion.equipo)) {
+                sinEquipo.clear(ubicacion.paquete);
+            }
+        }
+        List<String> sinUso = new ArrayList<>(propios.cardinality() + sinEquipo.cardinality());
+        for (int i = propios.nextSetBit(0); i >= 0; i = propios.nextSetBit(i + 1)) {
+            sinUso.add(archivoPaquete(equipo, i));
+        }
+        for (int i = sinEquipo.nextSetBit(0); i >= 0; i = sinEquipo.nextSetBit(i + 1)) {
+            sinUso.add(archivoPaquete(SIN_EQUIPO, i));
+        }
+        return sinUso;
+    }
+
+    /**
+     * Concatena la cola anterior con los primeros bytes de un tramo y se queda con los últimos TAMANO_COLA.
+     */
+    private static byte[] cola(byte[] anterior, byte[] tramo, int longitud) {
+        byte[] unidos = Arrays.copyOf(anterior, anterior.length + longitud);
+        System.arraycopy(tramo, 0, unidos, anterior.length, longitud);
+        return Arrays.copyOfRange(unidos, Math.max(0, unidos.length - TAMANO_COLA), unidos.length);
+    }
+
+    private static void escribirPoner(DataOutputStream salida, String nombre, Ubicacion ubicacion) throws IOException {
+        salida.writeByte(ubicacion.md5 == null ? PONER_EQUIPO : PONER_HUELLA);
+        salida.writeUTF(nombre);
+        salida.writeUTF(ubicacion.equipo);
+        salida.writeInt(ubicacion.paquete);
+        salida.writeLong(ubicacion.offset);
+        salida.writeInt(ubicacion.longitud);
+        if (ubicacion.md5 != null) {
+            salida.writeUTF(ubicacion.md5);
+        }
+    }
+}
\ No newline at end of file
@@ -1,15 +1,17 @@
 package com.drive.ahv.sync;
 
 import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
 import java.io.IOException;
 import java.nio.file.*;
 
 import static java.nio.file.StandardWatchEventKinds.*;
 
-public class MonitorDeArchivos implements Runnable { 
+public class MonitorDeArchivos implements DetectorDeCambios {
 
     private static final Configuracion config = Configuracion.getConfig(); // Instancia de Configuration
     private static final String LOCAL_DIR = config.getProperty("local.dir"); // Directorio local a monitorizar
+    private static final Registro log = Registro.de(MonitorDeArchivos.class); // Registro de eventos
     private WatchService watcher; // Servicio de vigilancia de archivos de Java
     private Path dir; // Ruta del directorio a monitorizar
     private Sincronizacion syncService; // Servicio de sincronización que usará el monitor
@@ -34,18 +36,18 @@ public class MonitorDeArchivos implements Runnable {
      */
     @Override
     public void run() {
-        System.out.println("Monitor de archivos iniciado para el directorio: " + LOCAL_DIR);
+        log.info("monitor.inicio", "Monitor de archivos iniciado para el directorio: {}", LOCAL_DIR);
         try {
             startMonitoring(); // Llama al método que contiene el bucle de monitorización principal
         } catch (IOException | InterruptedException e) {
             if (e instanceof ClosedWatchServiceException) {
-                System.out.println("Servicio de vigilancia del monitor de archivos cerrado.");
+                log.info("monitor.cerrado", "Servicio de vigilancia del monitor de archivos cerrado.");
             } else {
-                System.err.println("Error durante la monitorización de archivos: " + e.getMessage());
+                log.error("monitor.error", "Error durante la monitorización de archivos: {}", e.getMessage());
                 Thread.currentThread().interrupt();
             }
         } finally {
-            System.out.println("Hilo del monitor de archivos finalizado.");
+            log.info("monitor.fin", "Hilo del monitor de archivos finalizado.");
         }
     }
 
@@ -61,11 +63,11 @@ public class MonitorDeArchivos implements Runnable {
             try {
                 key = watcher.take(); // Espera y recupera la próxima clave de vigilancia (bloqueante hasta que haya un evento)
             } catch (InterruptedException ex) {
-                System.err.println("Servicio de vigilancia interrumpido: " + ex.getMessage());
+                log.warn("monitor.interrumpido", "Servicio de vigilancia interrumpido: {}", ex.getMessage());
                 Thread.currentThread().interrupt(); // Re-interrumpe el hilo
                 return;
             } catch (ClosedWatchServiceException e) {
-                System.out.println("Servicio de vigilancia cerrado, deteniendo bucle del monitor.");
+                log.info("monitor.cerrado", "Servicio de vigilancia cerrado, deteniendo bucle del monitor.");
                 return;
             }
 
@@ -84,26 +86,26 @@ public class MonitorDeArchivos implements Runnable {
                     try {
                         if (kind == ENTRY_CREATE) {
                             // Evento de creación de archivo
-                            System.out.println("Archivo creado: " + hijo); 
+                            log.info("monitor.evento", "Archivo creado: {}", hijo); 
                             syncService.synchronizeFile(hijo.toFile(), "created"); // Llama al servicio de sincronización para el archivo creado
                         } else if (kind == ENTRY_MODIFY) {
                             // Evento de modificación de archivo
-                            System.out.println("Archivo modificado: " + hijo);
+                            log.info("monitor.evento", "Archivo modificado: {}", hijo);
                             syncService.synchronizeFile(hijo.toFile(), "modified"); // Llama al servicio de sincronización para el archivo modificado
                         } else if (kind == ENTRY_DELETE) {
                             // Evento de borrado de archivo
-                            System.out.println("Archivo borrado: " + hijo); 
+                            log.info("monitor.evento", "Archivo borrado: {}", hijo); 
                             syncService.deleteRemoteFile(nombreArchivo.toString()); // Llama al servicio para eliminar el archivo remoto
                         }
                     } catch (IOException e) {
-                        System.err.println("Error al procesar el evento del archivo: " + e.getMessage());
+                        log.error("monitor.evento.error", "Error al procesar el evento del archivo {}: {}", hijo, e.getMessage());
                     }
                 }
             }
 
             boolean valido = key.reset(); // Resetea la clave para recibir más eventos
             if (!valido) {
-                System.out.println("La clave de vigilancia ya no es válida.");
+                log.warn("monitor.clave.invalida", "La clave de vigilancia ya no es válida.");
                 break;
             }
         }
@@ -113,11 +115,12 @@ public class MonitorDeArchivos implements Runnable {
      * Detiene el monitor de archivos, cerrando el WatchService.
      * @throws IOException Si ocurre un error al cerrar el WatchService.
      */
+    @Override
     public void stopMonitor() throws IOException {
         if (watcher != null) {
             // Si el WatchService existe (no es null)
             watcher.close(); // Cierra el WatchService, liberando recursos y deteniendo la monitorización
-            System.out.println("Monitor de archivos detenido para el directorio: " + LOCAL_DIR); // Mensaje de detención del monitor
+            log.info("monitor.detenido", "Monitor de archivos detenido para el directorio: {}", LOCAL_DIR); // Mensaje de detención del monitor
         }
     }
 }
\ No newline at end of file
@@ -1,14 +1,33 @@
 package com.drive.ahv.sync;
 
 import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
 import com.drive.ahv.utils.AESUtil;
+import com.drive.ahv.utils.AjusteDeTransferencias;
 import com.drive.ahv.utils.FTPUtil;
 import com.drive.ahv.utils.HistoryUtil;
+import com.drive.ahv.utils.Huella;
+import com.drive.ahv.utils.ManifiestoRemoto;
+import com.drive.ahv.utils.VerificacionUtil;
 import org.apache.commons.net.ftp.FTPClient;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Sincronizacion {
 
@@ -17,6 +36,19 @@ public class Sincronizacion {
     private static final String AES_KEY = config.getProperty("aes.key");
     private static final String LOCAL_DOWNLOAD_DIR = config.getProperty("local.downloadDir");
     private static final String LOCAL_ENCRYPTED_DIR = config.getProperty("local.encryptedDir");
+    private static final String HISTORY_DIR = config.getProperty("history.dir");
+    private static final Registro log = Registro.de(Sincronizacion.class); // Registro de eventos
+    // Empaquetador de archivos pequeños, o null si el empaquetado está desactivado
+    private static final Empaquetador empaquetador = Boolean.parseBoolean(config.getProperty("empaquetado.activo", "false")) ? new Empaquetador() : null;
+    // Archivos locales borrados al aplicar un borrado remoto, para no volver a propagarlo al servidor
+    private final Set<String> borradosDesdeRemoto = ConcurrentHashMap.newKeySet();
+    private static final String PENDIENTES = "pendientes.txt"; // Trabajo pendiente guardado en una parada ordenada
+    private final Map<String, String> pendientes = new LinkedHashMap<>(); // Nombre local -> último tipo de evento anotado
+    private final List<String[]> enCurso = new ArrayList<>(); // Operaciones en curso: {nombre, tipo}
+    private boolean pausado; // En pausa: las operaciones se anotan en lugar de hacerse
+    private boolean cerrando; // Parada en curso: no se aceptan operaciones nuevas
+    private long inicioParada; // Instante (ms) en que empezó la parada, antes de dejar de detectar cambios
+    private static final long MARGEN_PARADA_MS = 2_000; // Margen por la resolución de las fechas de modificación
 
     public Sincronizacion() {
         // Asegurar que el directorio de encriptados local existe al inicio
@@ -24,71 +56,373 @@ public class Sincronizacion {
         if (!Files.exists(RutaDirectorioEncriptada)) {
             try {
                 Files.createDirectories(RutaDirectorioEncriptada);
-                System.out.println("Directorio local para archivos encriptados creado: " + LOCAL_ENCRYPTED_DIR);
+                log.info("sync.directorio", "Directorio local para archivos encriptados creado: {}", LOCAL_ENCRYPTED_DIR);
             } catch (IOException e) {
-                System.err.println("Error al crear el directorio local para archivos encriptados: " + e.getMessage());
+                log.error("sync.directorio.error", "Error al crear el directorio local para archivos encriptados: {}", e.getMessage());
             }
         }
     }
 
     /** 
      * Realiza la sincronización inicial de los archivos en el directorio local.
-     * Carga cada archivo del directorio local al servidor FTP.
+     * Carga cada archivo del directorio local al servidor FTP, con varias transferencias a la vez según AjusteDeTransferencias.
      * @throws IOException Si ocurre un error de entrada/salida durante la sincronización.
      */
     public void initialSynchronize() throws IOException {
-        FTPClient ftpClient = null;
-
         try {
-            ftpClient = FTPUtil.connectFTP();
-            if (ftpClient == null) {
-                System.err.println("Fallo al conectar con el servidor FTP. Saliendo.");
-                return;
-            }
-
             Path localDirPath = Paths.get(LOCAL_DIR);
             if (!Files.exists(localDirPath)) {
                 Files.createDirectories(localDirPath);
-                System.out.println("Directorio local creado: " + LOCAL_DIR);
+                log.info("sync.directorio", "Directorio local creado: {}", LOCAL_DIR);
             }
 
             File localDir = new File(LOCAL_DIR);
             File[] files = localDir.listFiles();
 
             if (files != null) {
-                for (File file : files) {
-                    if (file.isFile()) {
-                        synchronizeFile(file, "initial");
+                // Solo se lanzan a la vez tantas sincronizaciones como transferencias simultáneas permite el ajuste en ese
+                // momento: cada una abre su propia conexión, y lanzar más dejaría sesiones FTP abiertas esperando turno
+                AjusteDeTransferencias ajuste = AjusteDeTransferencias.getAjuste();
+                ExecutorService hilos = Executors.newFixedThreadPool(ajuste.getConexionesMaximas(), r -> {
+                    Thread hilo = new Thread(r, "sync-inicial");
+                    hilo.setDaemon(true);
+                    return hilo;
+                });
+                AtomicInteger activas = new AtomicInteger();
+                try {
+                    List<Future<?>> tareas = new ArrayList<>(files.length);
+                    for (File file : files) {
+                        if (file.isFile()) {
+                            synchronized (activas) {
+                                while (activas.get() >= ajuste.getConexiones()) {
+                                    activas.wait(100); // Se vuelve a mirar por si el ajuste ha cambiado el número de conexiones
+                                }
+                                activas.incrementAndGet();
+                            }
+                            tareas.add(hilos.submit(() -> {
+                                try {
+                                    synchronizeFile(file, "initial");
+                                } finally {
+                                    synchronized (activas) {
+                                        activas.decrementAndGet();
+                                        activas.notifyAll();
+                                    }
+                                }
+                                return null;
+                            }));
+                        }
                     }
+                    for (Future<?> tarea : tareas) {
+                        tarea.get();
+                    }
+                } finally {
+                    hilos.shutdown();
                 }
+                log.info("sync.inicial", "Sincronización inicial completada: {}", AjusteDeTransferencias.getAjuste().resumen());
             } else {
-                System.out.println("No se encontraron archivos en el directorio local: " + LOCAL_DIR);
+                log.info("sync.inicial.vacio", "No se encontraron archivos en el directorio local: {}", LOCAL_DIR);
+            }
+
+            if (empaquetador != null) {
+                empaquetador.vaciar(); // Sube el último paquete sin esperar al temporizador
             }
 
         } catch (Exception e) {
-            System.err.println("Error durante la sincronización inicial: " + e.getMessage());
-            e.printStackTrace();
+            log.error("sync.inicial.error", "Error durante la sincronización inicial: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Arranca la sincronización. Si la ejecución anterior terminó de forma ordenada, retoma su trabajo pendiente
+     * y solo revisa los archivos modificados desde la parada; si no (primera ejecución o caída), hace la
+     * sincronización inicial completa.
+     * Además de los modificados desde la parada, se revisan los archivos que no están en el servidor o cuyo tamaño
+     * no corresponde con el registrado (por ejemplo, movidos a local.dir conservando su fecha), comparando solo
+     * tamaños, sin cifrar nada.
+     * @throws IOException Si ocurre un error de entrada/salida durante la sincronización.
+     */
+    public void startup() throws IOException {
+        Path rutaPendientes = Paths.get(LOCAL_ENCRYPTED_DIR, PENDIENTES);
+        if (!Files.exists(rutaPendientes)) {
+            initialSynchronize();
+            return;
+        }
+        long parada = 0;
+        Map<String, String> anteriores = new LinkedHashMap<>();
+        for (String linea : Files.readAllLines(rutaPendientes, StandardCharsets.UTF_8)) {
+            if (linea.startsWith("#parada\t")) {
+                parada = Long.parseLong(linea.substring(8).trim());
+            } else if (linea.indexOf('\t') > 0) {
+                anteriores.put(linea.substring(linea.indexOf('\t') + 1), linea.substring(0, linea.indexOf('\t')));
+            }
+        }
+        Files.delete(rutaPendientes); // Si esta ejecución cae, la siguiente hará la sincronización completa
+        log.info("sync.reanudacion", "Reanudando tras una parada ordenada: {} operaciones pendientes", anteriores.size());
+        synchronized (this) {
+            anteriores.forEach(pendientes::putIfAbsent);
+        }
+        // Archivos modificados mientras la aplicación estaba parada o que no coinciden con lo subido (solo se consultan
+        // fechas y tamaños, sin cifrar nada)
+        ManifiestoRemoto manifiesto = ManifiestoRemoto.getManifiesto();
+        File[] archivos = new File(LOCAL_DIR).listFiles();
+        if (archivos != null) {
+            for (File archivo : archivos) {
+                if (archivo.isFile() && (archivo.lastModified() >= parada - MARGEN_PARADA_MS
+                        || tamanoRegistrado(manifiesto, archivo.getName()) != AESUtil.tamanoCifrado(archivo.length()))) {
+                    anotar(archivo.getName(), "modified");
+                }
+            }
+        }
+        // Archivos borrados mientras la aplicación estaba parada
+        for (String nombreRemoto : ManifiestoRemoto.getManifiesto().nombres()) {
+            if (nombreRemoto.endsWith(".enc") && nombreRemoto.indexOf('/') < 0) {
+                String nombre = nombreRemoto.substring(0, nombreRemoto.length() - 4);
+                if (!Files.exists(Paths.get(LOCAL_DIR, nombre))) {
+                    anotar(nombre, "deleted");
+                }
+            }
+        }
+        processPending();
+    }
+
+    /**
+     * Tamaño del contenido cifrado de un archivo según el manifiesto o, si está empaquetado, según el índice de paquetes.
+     * @return El tamaño, o -1 si el archivo no consta como subido (o no se puede consultar el índice).
+     */
+    private long tamanoRegistrado(ManifiestoRemoto manifiesto, String nombre) {
+        Huella huella = manifiesto.obtener(nombre + ".enc");
+        if (huella != null) {
+            return huella.getTamano();
+        }
+        if (empaquetador != null) {
+            try {
+                return empaquetador.longitudEmpaquetada(nombre);
+            } catch (IOException e) {
+                log.warn("sync.reanudacion.indice", "No se pudo consultar el índice de paquetes para {}: {}", nombre, e.getMessage());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marca el inicio de la parada. Se llama antes de dejar de detectar cambios, para que los cambios que se hagan
+     * desde ese momento (incluidos los del plazo de espera de shutdown) se revisen en el siguiente arranque.
+     */
+    public synchronized void beginShutdown() {
+        if (inicioParada == 0) {
+            inicioParada = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Pone la sincronización en pausa: los cambios que lleguen se anotan como pendientes.
+     * Las operaciones en curso terminan normalmente.
+     */
+    public synchronized void pause() {
+        pausado = true;
+        log.info("sync.pausa", "Sincronización en pausa");
+    }
+
+    /**
+     * Quita la pausa. Las operaciones pendientes se procesan con processPending().
+     */
+    public synchronized void resume() {
+        pausado = false;
+        log.info("sync.reanudada", "Sincronización reanudada: {} operaciones pendientes", pendientes.size());
+    }
+
+    /**
+     * Procesa las operaciones pendientes, en el orden en que se anotaron.
+     * Cada archivo se sube si existe en local o se borra del servidor si ya no existe.
+     * Las operaciones que fallan (por ejemplo, con el servidor caído) vuelven a quedar pendientes para el siguiente intento.
+     */
+    public void processPending() {
+        Map<String, String> lote;
+        synchronized (this) {
+            if (pausado || cerrando || pendientes.isEmpty()) {
+                return;
+            }
+            lote = new LinkedHashMap<>(pendientes);
+            pendientes.clear();
+        }
+        for (Map.Entry<String, String> pendiente : lote.entrySet()) {
+            try {
+                File archivo = Paths.get(LOCAL_DIR, pendiente.getKey()).toFile();
+                if (archivo.isFile()) {
+                    synchronizeFile(archivo, "deleted".equals(pendiente.getValue()) ? "modified" : pendiente.getValue());
+                } else {
+                    deleteRemoteFile(pendiente.getKey());
+                }
+            } catch (IOException e) {
+                log.error("sync.pendiente.error", "Error al procesar la operación pendiente de {}: {}", pendiente.getKey(), e.getMessage());
+                reanotar(pendiente.getKey(), pendiente.getValue());
+            }
         }
     }
-    public static void stop() throws IOException {
-        FTPClient ftpClient = FTPUtil.connectFTP();
-        FTPUtil.disconnectFTP(ftpClient);
+
+    /**
+     * Sube ya el paquete en curso y las operaciones pendientes, sin esperar a los temporizadores.
+     * @throws IOException Si no se puede conectar con el servidor FTP.
+     */
+    public void flush() throws IOException {
+        processPending();
+        if (empaquetador != null) {
+            empaquetador.vaciar();
+        }
+    }
+
+    /**
+     * Parada ordenada: deja de aceptar operaciones, espera a las que están en curso hasta el plazo indicado,
+     * sube el paquete en curso y guarda en disco lo que quede pendiente para retomarlo en el siguiente arranque.
+     * @param plazoMs Tiempo máximo de espera de las operaciones en curso.
+     * @return true si todas las operaciones en curso terminaron dentro del plazo.
+     */
+    public boolean shutdown(long plazoMs) {
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(plazoMs);
+        boolean drenado;
+        Map<String, String> restantes;
+        synchronized (this) {
+            cerrando = true;
+            long restante;
+            while (!enCurso.isEmpty() && (restante = limite - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, restante);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            drenado = enCurso.isEmpty();
+            restantes = new LinkedHashMap<>(pendientes);
+            for (String[] operacion : enCurso) {
+                restantes.putIfAbsent(operacion[0], operacion[1]); // No terminaron a tiempo: se repiten en el siguiente arranque
+            }
+        }
+        if (empaquetador != null) {
+            try {
+                empaquetador.vaciar(); // Sube el paquete en curso antes de terminar
+            } catch (IOException e) {
+                log.error("sync.parada.error", "No se pudo subir el paquete en curso: {}", e.getMessage());
+            }
+            for (String nombre : empaquetador.nombresSinSubir()) {
+                restantes.putIfAbsent(nombre, "modified"); // Se vuelven a empaquetar en el siguiente arranque
+            }
+        }
+        Path rutaPendientes = Paths.get(LOCAL_ENCRYPTED_DIR, PENDIENTES);
+        Path temporal = rutaPendientes.resolveSibling(PENDIENTES + ".tmp");
+        long marcaParada;
+        synchronized (this) {
+            marcaParada = inicioParada != 0 ? inicioParada : System.currentTimeMillis();
+        }
+        try (BufferedWriter salida = Files.newBufferedWriter(temporal, StandardCharsets.UTF_8)) {
+            salida.write("#parada\t" + marcaParada);
+            salida.newLine();
+            for (Map.Entry<String, String> pendiente : restantes.entrySet()) {
+                salida.write(pendiente.getValue() + "\t" + pendiente.getKey());
+                salida.newLine();
+            }
+        } catch (IOException e) {
+            log.error("sync.parada.error", "No se pudo guardar el trabajo pendiente: {}", e.getMessage());
+            return false;
+        }
+        try {
+            Files.move(temporal, rutaPendientes, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("sync.parada.error", "No se pudo guardar el trabajo pendiente: {}", e.getMessage());
+            return false;
+        }
+        log.info("sync.parada", "Sincronización detenida ({}): {} operaciones pendientes guardadas",
+                drenado ? "sin operaciones en curso" : "plazo agotado", restantes.size());
+        return drenado;
+    }
+
+    public synchronized boolean isPaused() {
+        return pausado;
+    }
+
+    public synchronized int getPendingCount() {
+        return pendientes.size();
+    }
+
+    public synchronized int getInFlightCount() {
+        return enCurso.size();
+    }
+
+    /**
+     * Registra el inicio de una operación, o la anota como pendiente si la sincronización está en pausa o parándose.
+     * @return La operación registrada, que se pasa a salir(), o null si se ha anotado como pendiente.
+     */
+    private synchronized String[] entrar(String nombre, String tipo) {
+        if (pausado || cerrando) {
+            anotar(nombre, tipo);
+            return null;
+        }
+        String[] operacion = {nombre, tipo};
+        enCurso.add(operacion);
+        return operacion;
+    }
+
+    private synchronized void salir(String[] operacion) {
+        enCurso.remove(operacion);
+        notifyAll();
+    }
+
+    private synchronized void anotar(String nombre, String tipo) {
+        pendientes.remove(nombre); // Se mueve al final: el último evento de cada archivo es el que cuenta
+        pendientes.put(nombre, tipo);
+    }
+
+    /**
+     * Vuelve a anotar una operación que ha fallado, salvo que mientras tanto haya llegado otro evento del mismo archivo.
+     */
+    private synchronized void reanotar(String nombre, String tipo) {
+        pendientes.putIfAbsent(nombre, tipo);
     }
     /**
      * Sincroniza un archivo individual con el servidor FTP.
      * Cifra el contenido del archivo, lo guarda localmente en la carpeta 'encrypted', y lo sube al servidor.
-     * Mueve la versión anterior del archivo al historial (si no es sincronización inicial o creación).
+     * Mueve la versión anterior del archivo al historial antes de subir la nueva (si no es sincronización inicial o creación).
+     * Tras la subida comprueba el tamaño remoto y registra la huella del contenido en el manifiesto.
+     * Si el contenido cifrado coincide con el registrado en el manifiesto, no se sube (evita reenviar lo que se acaba de descargar).
+     * Si el empaquetado está activo, los archivos por debajo del umbral se añaden al paquete en curso en su lugar.
      * @param archivo El archivo local a sincronizar.
      * @param tipoEvento El tipo de evento que desencadena la sincronización ("initial", "created", "modified", etc.).
+     * Mientras la sincronización está en pausa o parándose, el archivo se anota como pendiente en lugar de subirse.
+     * Si la subida falla, también queda pendiente para el siguiente reintento.
      * @throws IOException Si ocurre un error de entrada/salida durante la sincronización del archivo.
      */
     public void synchronizeFile(File archivo, String tipoEvento) throws IOException {
+        String[] operacion = entrar(archivo.getName(), tipoEvento);
+        if (operacion == null) {
+            return;
+        }
+        try {
+            if (!sincronizarArchivo(archivo, tipoEvento)) {
+                reanotar(archivo.getName(), tipoEvento);
+            }
+        } finally {
+            salir(operacion);
+        }
+    }
+
+    /**
+     * @return true si el archivo quedó sincronizado (o no había nada que subir), false si falló.
+     */
+    private boolean sincronizarArchivo(File archivo, String tipoEvento) {
         FTPClient clienteFTP = null;
+        borradosDesdeRemoto.remove(archivo.getName()); // Vuelve a existir: sus borrados se propagan de nuevo
         try {
-            clienteFTP = FTPUtil.connectFTP();
-            if (clienteFTP == null) {
-                System.err.println("Fallo al conectar con el servidor FTP para sincronizar el archivo.");
-                return;
+            if (empaquetador != null) {
+                if (empaquetador.admite(archivo)) {
+                    if (empaquetador.agregar(archivo)) {
+                        log.info("sync.archivo", "Archivo empaquetado ({}): {}", tipoEvento, archivo.getName());
+                    } else {
+                        log.debug("sync.sinCambios", "Archivo empaquetado sin cambios respecto al servidor ({}): {}", tipoEvento, archivo.getName());
+                    }
+                    retirarCopiaIndividual(archivo.getName());
+                    return true;
+                }
+                empaquetador.quitar(archivo.getName()); // Ha superado el umbral: a partir de ahora se sube como archivo individual
             }
 
             String nombreArchivo = archivo.getName();
@@ -98,63 +432,192 @@ public class Sincronizacion {
             // 1. Leer y Encriptar el archivo
             byte[] contenidoArchivo = Files.readAllBytes(archivo.toPath());
             byte[] contenidoEncriptado = AESUtil.encrypt(contenidoArchivo, AES_KEY);
+            Huella huella = Huella.de(contenidoEncriptado);
+
+            // El cifrado es determinista: si coincide con lo último subido (o descargado), no hay nada que subir
+            Huella anterior = ManifiestoRemoto.getManifiesto().obtener(nombreArchivoEncriptado);
+            if (anterior != null && anterior.getMd5().equals(huella.getMd5())) {
+                log.debug("sync.sinCambios", "Archivo sin cambios respecto al servidor ({}): {}", tipoEvento, nombreArchivo);
+                return true;
+            }
+
+            clienteFTP = FTPUtil.connectFTP();
+            if (clienteFTP == null) {
+                log.error("sync.conexion.fallo", "Fallo al conectar con el servidor FTP para sincronizar el archivo.");
+                return false;
+            }
 
             // 2. Guardar el archivo encriptado LOCALMENTE en la carpeta 'encriptados'
             Files.write(RutaArchivoLocalEncriptado, contenidoEncriptado);
-            System.out.println("Archivo encriptado guardado localmente: " + RutaArchivoLocalEncriptado);
+            log.debug("sync.encriptado", "Archivo encriptado guardado localmente: {}", RutaArchivoLocalEncriptado);
+
 
+            // 3. Mover la versión anterior al historial antes de sustituirla
+            if (!"initial".equals(tipoEvento) && !"created".equals(tipoEvento)
+                    && HistoryUtil.moveFileToHistory(clienteFTP, nombreArchivoEncriptado)) {
+                ManifiestoRemoto.getManifiesto().renombrar(nombreArchivoEncriptado, HISTORY_DIR + "/" + nombreArchivoEncriptado);
+                log.info("sync.historial", "Versión anterior movida al historial para: {}", nombreArchivo);
+            }
 
-            // 3. Subir el archivo ENCRIPTADO (desde la carpeta 'encriptados' local) al servidor FTP
-            boolean subidaCorrecta = FTPUtil.uploadFile(clienteFTP, RutaArchivoLocalEncriptado.toString(), nombreArchivoEncriptado); // Subir DESDE la carpeta local 'encriptados'
+            // 4. Subir el archivo ENCRIPTADO (desde la carpeta 'encriptados' local) al servidor FTP y comprobar su tamaño
+            boolean subidaCorrecta = subirVerificado(clienteFTP, RutaArchivoLocalEncriptado.toString(), nombreArchivoEncriptado, huella)
+                    || subirVerificado(clienteFTP, RutaArchivoLocalEncriptado.toString(), nombreArchivoEncriptado, huella); // Un reintento si la subida llegó incompleta
 
             if (subidaCorrecta) {
-                if (!"initial".equals(tipoEvento) && !"created".equals(tipoEvento)) {
-                    HistoryUtil.moveFileToHistory(clienteFTP, nombreArchivoEncriptado);
-                    System.out.println("Versión anterior movida al historial para: " + nombreArchivo);
-                }
-                System.out.println("Archivo sincronizado (" + tipoEvento + "): " + nombreArchivo);
+                ManifiestoRemoto.getManifiesto().registrar(nombreArchivoEncriptado, huella);
+                log.info("sync.archivo", "Archivo sincronizado ({}): {}", tipoEvento, nombreArchivo);
             } else {
-                System.err.println("Fallo al subir el archivo: " + nombreArchivoEncriptado);
+                log.error("sync.subida.fallo", "Fallo al subir el archivo: {}", nombreArchivoEncriptado);
             }
+            return subidaCorrecta;
 
         } catch (Exception e) {
-            System.err.println("Error al sincronizar el archivo: " + archivo.getName() + " - " + e.getMessage());
-            e.printStackTrace();
+            log.error("sync.archivo.error", "Error al sincronizar el archivo: {} - {}", archivo.getName(), e.getMessage(), e);
+            return false;
+        } finally {
+            if (clienteFTP != null) {
+                FTPUtil.disconnectFTP(clienteFTP);
+            }
         }
     }
 
+    /**
+     * Mueve al historial la copia individual (.enc) de un archivo que antes superaba el umbral y ahora se empaqueta,
+     * para que no quede en el servidor una versión antigua que otros equipos tomarían por la actual.
+     * Antes se sube el paquete en curso, así que el archivo no deja de estar en el servidor en ningún momento.
+     */
+    private void retirarCopiaIndividual(String nombreArchivo) throws IOException {
+        String nombreArchivoEncriptado = nombreArchivo + ".enc";
+        ManifiestoRemoto manifiesto = ManifiestoRemoto.getManifiesto();
+        if (manifiesto.obtener(nombreArchivoEncriptado) == null) {
+            return; // Nunca se subió como archivo individual
+        }
+        if (!empaquetador.vaciar()) {
+            log.warn("sync.historial.aplazado", "El paquete de {} no se pudo subir; su copia individual se retirará en el siguiente cambio", nombreArchivo);
+            return;
+        }
+        FTPClient clienteFTP = FTPUtil.connectFTP();
+        try {
+            if (HistoryUtil.moveFileToHistory(clienteFTP, nombreArchivoEncriptado)) {
+                manifiesto.renombrar(nombreArchivoEncriptado, HISTORY_DIR + "/" + nombreArchivoEncriptado);
+                log.info("sync.historial", "Copia individual movida al historial al empaquetar: {}", nombreArchivo);
+            } else if (FTPUtil.deleteFile(clienteFTP, nombreArchivoEncriptado)) {
+                manifiesto.olvidar(nombreArchivoEncriptado);
+                log.info("sync.borrado", "Copia individual eliminada al empaquetar: {}", nombreArchivoEncriptado);
+            } else {
+                manifiesto.olvidar(nombreArchivoEncriptado); // Ya no está en el servidor
+                log.warn("sync.borrado.fallo", "Copia individual no encontrada o no pudo ser eliminada: {}", nombreArchivoEncriptado);
+            }
+        } finally {
+            FTPUtil.disconnectFTP(clienteFTP);
+        }
+    }
+
+    /**
+     * Indica si un archivo está empaquetado en el servidor. Lo usa SondeoRemoto para no borrar en local un archivo
+     * cuya copia individual ha desaparecido porque otro equipo lo ha empaquetado.
+     * @param clienteFTP Cliente FTP conectado.
+     * @param nombreArchivo El nombre del archivo local.
+     * @return true si el archivo está en el índice de paquetes.
+     * @throws IOException Si no se puede leer el índice remoto.
+     */
+    public boolean isPackedRemotely(FTPClient clienteFTP, String nombreArchivo) throws IOException {
+        return empaquetador != null && empaquetador.contiene(clienteFTP, nombreArchivo);
+    }
+
+    /**
+     * Indica si un archivo consta como subido, en el manifiesto o en el índice de paquetes. Lo usa el demonio para
+     * propagar un borrado solo de archivos que existen en el servidor.
+     * @param nombreArchivo El nombre del archivo local.
+     * @return true si hay una copia individual o empaquetada del archivo.
+     */
+    public boolean isKnownRemotely(String nombreArchivo) {
+        return tamanoRegistrado(ManifiestoRemoto.getManifiesto(), nombreArchivo) >= 0;
+    }
+
+    /**
+     * Sube un archivo y comprueba que el servidor tiene el tamaño esperado.
+     * @return true si la subida terminó y el tamaño remoto coincide con la huella.
+     */
+    private boolean subirVerificado(FTPClient clienteFTP, String rutaLocal, String nombreRemoto, Huella huella) {
+        if (!FTPUtil.uploadFile(clienteFTP, rutaLocal, nombreRemoto)) {
+            return false;
+        }
+        VerificacionUtil.Resultado resultado = VerificacionUtil.verificarTamano(clienteFTP, nombreRemoto, huella);
+        if (resultado != VerificacionUtil.Resultado.CORRECTO) {
+            log.warn("sync.verificacion.fallo", "Subida de {} no verificada: {}", nombreRemoto, resultado);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Elimina un archivo remoto en el servidor FTP.
      * Asume que los archivos remotos tienen la extensión ".enc" (para archivos cifrados).
-     * Mueve el archivo eliminado al historial antes de borrarlo.
+     * Mueve el archivo eliminado al historial; solo lo borra si no se puede mover.
      * @param remoteFilename El nombre del archivo remoto a eliminar (sin la extensión .enc).
+     * Mientras la sincronización está en pausa o parándose, el borrado se anota como pendiente.
+     * Si el borrado falla, también queda pendiente para el siguiente reintento.
      * @throws IOException Si ocurre un error de entrada/salida durante la operación de borrado.
      */
     public void deleteRemoteFile(String remoteFilename) throws IOException {
+        String[] operacion = entrar(remoteFilename, "deleted");
+        if (operacion == null) {
+            return;
+        }
+        try {
+            if (!borrarArchivoRemoto(remoteFilename)) {
+                reanotar(remoteFilename, "deleted");
+            }
+        } finally {
+            salir(operacion);
+        }
+    }
+
+    /**
+     * @return true si el archivo quedó borrado (o no había nada que borrar), false si falló.
+     */
+    private boolean borrarArchivoRemoto(String remoteFilename) {
         FTPClient ftpClient = null;
         try {
+            if (borradosDesdeRemoto.remove(remoteFilename)) {
+                return true; // Lo borró SondeoRemoto porque ya no está en el servidor
+            }
+            if (empaquetador != null && empaquetador.quitar(remoteFilename)) {
+                return true; // Estaba empaquetado: basta con quitarlo del índice
+            }
+
             ftpClient = FTPUtil.connectFTP();
             if (ftpClient == null) {
-                System.err.println("Fallo al conectar con el servidor FTP para la operación de borrado.");
-                return;
+                log.error("sync.conexion.fallo", "Fallo al conectar con el servidor FTP para la operación de borrado.");
+                return false;
             }
 
-            String encryptedFilename = remoteFilename;
-            if (FTPUtil.deleteFile(ftpClient, encryptedFilename)) {
-                System.out.println("Archivo remoto eliminado: " + encryptedFilename);
-                HistoryUtil.moveFileToHistory(ftpClient, encryptedFilename);
+            String encryptedFilename = remoteFilename + ".enc";
+            if (HistoryUtil.moveFileToHistory(ftpClient, encryptedFilename)) {
+                ManifiestoRemoto.getManifiesto().renombrar(encryptedFilename, HISTORY_DIR + "/" + encryptedFilename);
+                log.info("sync.borrado", "Archivo remoto eliminado (movido al historial): {}", encryptedFilename);
+            } else if (FTPUtil.deleteFile(ftpClient, encryptedFilename)) {
+                ManifiestoRemoto.getManifiesto().olvidar(encryptedFilename);
+                log.info("sync.borrado", "Archivo remoto eliminado: {}", encryptedFilename);
             } else {
-                System.out.println("Archivo remoto no encontrado o no pudo ser eliminado: " + encryptedFilename);
+                log.warn("sync.borrado.fallo", "Archivo remoto no encontrado o no pudo ser eliminado: {}", encryptedFilename);
             }
+            return true;
 
         } catch (Exception e) {
-            System.err.println("Error al eliminar el archivo remoto: " + remoteFilename + " - " + e.getMessage());
-            e.printStackTrace();
+            log.error("sync.borrado.error", "Error al eliminar el archivo remoto: {} - {}", remoteFilename, e.getMessage(), e);
+            return false;
+        } finally {
+            if (ftpClient != null) {
+                FTPUtil.disconnectFTP(ftpClient);
+            }
         }
     }
 
     /**
      * Descarga un archivo desde el servidor FTP.
+     * Si el archivo está empaquetado, solo se descarga su rango dentro del paquete.
      * @param remoteFilename El nombre del archivo remoto a descargar.
      * @return true si la descarga fue exitosa, false en caso contrario.
      */
@@ -164,26 +627,165 @@ public class Sincronizacion {
         try {
             ftpClient = FTPUtil.connectFTP();
             if (ftpClient == null) {
-                System.err.println("Fallo al conectar con el servidor FTP para la descarga.");
+                log.error("sync.conexion.fallo", "Fallo al conectar con el servidor FTP para la descarga.");
                 return false;
             }
 
             Path downloadDirPath = Paths.get(LOCAL_DOWNLOAD_DIR);
             if (!Files.exists(downloadDirPath)) {
                 Files.createDirectories(downloadDirPath);
-                System.out.println("Directorio de descarga local creado: " + LOCAL_DOWNLOAD_DIR);
+                log.info("sync.directorio", "Directorio de descarga local creado: {}", LOCAL_DOWNLOAD_DIR);
             }
             String localFilePath = Paths.get(LOCAL_DOWNLOAD_DIR, remoteFilename).toString();
-            downloaded = downloadFile(ftpClient, remoteFilename, localFilePath);
+            String nombreLocal = remoteFilename.endsWith(".enc") ? remoteFilename.substring(0, remoteFilename.length() - 4) : remoteFilename;
+            if (empaquetador != null && empaquetador.contiene(ftpClient, nombreLocal)) {
+                downloaded = empaquetador.extraer(ftpClient, nombreLocal, localFilePath); // Lectura por rango del paquete
+            } else {
+                downloaded = downloadFile(ftpClient, remoteFilename, localFilePath);
+            }
 
         } catch (IOException e) {
-            System.err.println("Error al descargar el archivo desde FTP: " + e.getMessage());
-            e.printStackTrace();
+            log.error("sync.descarga.error", "Error al descargar el archivo desde FTP: {}", e.getMessage(), e);
             return false;
+        } finally {
+            if (ftpClient != null) {
+                FTPUtil.disconnectFTP(ftpClient);
+            }
         }
         return downloaded;
     }
 
+    /**
+     * Aplica en local un archivo nuevo o modificado en el servidor: lo descarga y lo descifra por fragmentos
+     * en un temporal del directorio de descargas y después lo mueve a su destino.
+     * La huella del contenido cifrado se registra en el manifiesto antes de mover el archivo, de modo que el
+     * evento local que provoca no lo vuelve a subir.
+     * @param clienteFTP Cliente FTP conectado.
+     * @param remoteFilename Nombre del archivo remoto (con la extensión .enc).
+     * @param tamano Tamaño del archivo remoto según el listado.
+     * @param destino Ruta local donde dejar el archivo descifrado.
+     * @return true si el archivo se aplicó, false en caso contrario.
+     */
+    public boolean applyRemoteFile(FTPClient clienteFTP, String remoteFilename, long tamano, Path destino) {
+        Path temporal = null;
+        try {
+            Files.createDirectories(Paths.get(LOCAL_DOWNLOAD_DIR));
+            temporal = Files.createTempFile(Paths.get(LOCAL_DOWNLOAD_DIR), destino.getFileName().toString(), ".remoto"); // Fuera de local.dir para no generar eventos
+            Huella.Calculo calculo = new Huella.Calculo(tamano);
+            AjusteDeTransferencias ajuste = AjusteDeTransferencias.getAjuste();
+            long inicio = ajuste.iniciar();
+            boolean descargado = false;
+            try {
+                InputStream remoto = clienteFTP.retrieveFileStream(remoteFilename);
+                if (remoto == null) {
+                    // Sin conexión de datos no hay respuesta pendiente: completePendingCommand() esperaría para siempre
+                    log.error("sync.remoto.fallo", "No se pudo descargar {}: {}", remoteFilename, clienteFTP.getReplyString().trim());
+                    return false;
+                }
+                try (remoto) {
+                    InputStream conHuella = new FilterInputStream(remoto) {
+                        @Override
+                        public int read(byte[] b, int off, int len) throws IOException {
+                            int leidos = super.read(b, off, len);
+                            if (leidos > 0) {
+                                calculo.actualizar(b, off, leidos); // Huella del contenido cifrado según llega
+                            }
+                            return leidos;
+                        }
+                    };
+                    try (OutputStream salida = new BufferedOutputStream(Files.newOutputStream(temporal))) {
+                        AESUtil.decrypt(conHuella, salida, AES_KEY);
+                    }
+                    descargado = true;
+                } finally {
+                    descargado &= completarTransferencia(clienteFTP, remoteFilename);
+                }
+            } finally {
+                ajuste.terminar(inicio, descargado ? tamano : -1); // Siempre: es lo que devuelve el hueco de transferencia
+            }
+            if (!descargado) {
+                return false;
+            }
+            ManifiestoRemoto.getManifiesto().registrar(remoteFilename, calculo.terminar());
+            try {
+                Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING); // Directorios en distinto sistema de archivos
+            }
+            log.info("sync.remoto", "Cambio remoto aplicado: {} -> {}", remoteFilename, destino);
+            return true;
+        } catch (Exception e) {
+            log.error("sync.remoto.error", "Error al aplicar el cambio remoto {}: {}", remoteFilename, e.getMessage(), e);
+            return false;
+        } finally {
+            if (temporal != null) {
+                try {
+                    Files.deleteIfExists(temporal);
+                } catch (IOException e) {
+                    log.warn("sync.remoto.temporal", "No se pudo borrar el temporal {}: {}", temporal, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Lee la respuesta final de una transferencia (completePendingCommand). Un 426/451 tras cerrar el flujo
+     * o un error de red al leerla cuentan como transferencia fallida.
+     * @return true si el servidor confirmó la transferencia.
+     */
+    private static boolean completarTransferencia(FTPClient clienteFTP, String remoteFilename) {
+        try {
+            if (clienteFTP.completePendingCommand()) {
+                return true;
+            }
+            log.error("sync.remoto.fallo", "El servidor no confirmó la descarga de {}: {}", remoteFilename, clienteFTP.getReplyString().trim());
+        } catch (IOException e) {
+            log.error("sync.remoto.fallo", "Error al leer la respuesta de la descarga de {}: {}", remoteFilename, e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Borra un archivo local porque se ha borrado en el servidor, sin propagar el borrado de vuelta.
+     * @param nombreArchivo El nombre del archivo local (sin la extensión .enc).
+     * @return true si el archivo se borró.
+     * @throws IOException Si ocurre un error al borrar el archivo.
+     */
+    public boolean deleteLocalFile(String nombreArchivo) throws IOException {
+        borradosDesdeRemoto.add(nombreArchivo);
+        if (!Files.deleteIfExists(Paths.get(LOCAL_DIR, nombreArchivo))) {
+            borradosDesdeRemoto.remove(nombreArchivo);
+            return false;
+        }
+        log.info("sync.remoto", "Archivo local borrado porque ya no está en el servidor: {}", nombreArchivo);
+        return true;
+    }
+
+    /**
+     * Calcula la huella que tendría un archivo local al subirlo (su contenido cifrado).
+     * @param archivo El archivo local.
+     * @return La huella del contenido cifrado.
+     * @throws Exception Si ocurre un error al leer o cifrar el archivo.
+     */
+    public Huella localFingerprint(File archivo) throws Exception {
+        return Huella.de(AESUtil.encrypt(Files.readAllBytes(archivo.toPath()), AES_KEY));
+    }
+
+    /**
+     * Restaura un archivo del servidor en el directorio de descargas: lo descarga y lo descifra.
+     * @param nombreArchivo El nombre del archivo, con o sin la extensión .enc.
+     * @return La ruta del archivo descifrado, o null si no se pudo restaurar.
+     */
+    public Path restoreFile(String nombreArchivo) {
+        String remoteFilename = nombreArchivo.endsWith(".enc") ? nombreArchivo : nombreArchivo + ".enc";
+        if (!downloadFileFromFTP(remoteFilename)) {
+            return null;
+        }
+        Path rutaDescargada = Paths.get(LOCAL_DOWNLOAD_DIR, remoteFilename);
+        Path rutaDescifrada = Paths.get(LOCAL_DOWNLOAD_DIR, remoteFilename.substring(0, remoteFilename.length() - 4)); // Quita la extensión .enc
+        return decryptAndSaveFile(rutaDescargada.toString(), rutaDescifrada.toString()) ? rutaDescifrada : null;
+    }
+
     /**
      * Método privado para realizar la descarga real del archivo FTP.
      * @param ftpClient Cliente FTP conectado.
@@ -192,18 +794,23 @@ public class Sincronizacion {
      * @return true si la descarga fue exitosa, false en caso contrario.
      */
     private boolean downloadFile(FTPClient ftpClient, String remoteFile, String localFile) {
+        AjusteDeTransferencias ajuste = AjusteDeTransferencias.getAjuste();
+        long inicio = ajuste.iniciar();
+        boolean success = false;
         try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(localFile))) {
-            boolean success = ftpClient.retrieveFile(remoteFile, outputStream);
+            success = ftpClient.retrieveFile(remoteFile, outputStream);
             if (success) {
-                System.out.println("Archivo descargado exitosamente: " + remoteFile + " -> " + localFile);
+                log.info("sync.descarga", "Archivo descargado exitosamente: {} -> {}", remoteFile, localFile);
                 return true;
             } else {
-                System.err.println("Fallo al descargar el archivo: " + remoteFile);
+                log.error("sync.descarga.fallo", "Fallo al descargar el archivo: {}", remoteFile);
                 return false;
             }
         } catch (IOException e) {
-            System.err.println("Error al descargar el archivo " + remoteFile + ": " + e.getMessage());
+            log.error("sync.descarga.error", "Error al descargar el archivo {}: {}", remoteFile, e.getMessage());
             return false;
+        } finally {
+            ajuste.terminar(inicio, success ? new File(localFile).length() : -1);
         }
     }
 
@@ -218,11 +825,10 @@ public class Sincronizacion {
             byte[] encryptedContent = Files.readAllBytes(Paths.get(encryptedFilePath));
             byte[] decryptedContent = AESUtil.decrypt(encryptedContent, AES_KEY);
             Files.write(Paths.get(decryptedFilePath), decryptedContent);
-            System.out.println("Archivo descifrado exitosamente: " + encryptedFilePath + " -> " + decryptedFilePath);
+            log.info("sync.descifrado", "Archivo descifrado exitosamente: {} -> {}", encryptedFilePath, decryptedFilePath);
             return true;
         } catch (Exception e) {
-            System.err.println("Error al descifrar el archivo " + encryptedFilePath + ": " + e.getMessage());
-            e.printStackTrace();
+            log.error("sync.descifrado.error", "Error al descifrar el archivo {}: {}", encryptedFilePath, e.getMessage(), e);
             return false;
         }
     }
@@ -0,0 +1,349 @@
+package com.drive.ahv.sync;
+
+import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
+import com.drive.ahv.utils.FTPUtil;
+import com.drive.ahv.utils.FileUtil;
+import com.drive.ahv.utils.Huella;
+import com.drive.ahv.utils.ManifiestoRemoto;
+import com.drive.ahv.utils.VerificacionUtil;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detector de cambios en el servidor, para que la sincronización sea bidireccional.
+ * Guarda una instantánea del listado remoto (nombre, tamaño y fecha de modificación) y en cada sondeo pide solo
+ * la fecha de modificación del directorio (MLST); el directorio se vuelve a listar (MLSD) únicamente si ha cambiado,
+ * así que el coste de un sondeo sin cambios no depende del número de archivos.
+ * Cada cierto número de sondeos se lista igualmente, por si algún cliente sobrescribe un archivo en el sitio
+ * (eso no cambia la fecha del directorio).
+ *
+ * Un cambio solo se aplica cuando dos listados seguidos coinciden, para no descargar subidas a medias.
+ * Los cambios propios se reconocen comparando con el manifiesto; los ajenos se descargan y descifran por fragmentos.
+ * Si el archivo también ha cambiado en local, la versión remota se guarda como copia en conflicto y la local se vuelve a subir.
+ * Un cambio que no se puede aplicar se reintenta en los sondeos siguientes y, tras MAX_INTENTOS, con una espera
+ * creciente; nunca se da por aplicado, así que tampoco se guarda en la instantánea.
+ */
+public class SondeoRemoto implements Runnable {
+
+    private static final Configuracion config = Configuracion.getConfig(); // Instancia de Configuration
+    private static final String LOCAL_DIR = config.getProperty("local.dir"); // Directorio local sincronizado
+    private static final String REMOTE_DIR = config.getProperty("ftp.remoteDir"); // Directorio remoto que se sondea
+    private static final Registro log = Registro.de(SondeoRemoto.class); // Registro de eventos
+    private static final DateTimeFormatter FORMATO_CONFLICTO = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final int MAX_INTENTOS = 3; // Intentos seguidos de aplicar un mismo cambio antes de espaciar los reintentos
+    private static final int MAX_DUPLICACIONES = 5; // La espera entre reintentos llega como mucho a 32 veces remoto.intervaloMaxMs
+
+    private final Sincronizacion syncService; // Servicio de sincronización que aplica los cambios en local
+    private final long intervaloMinimoMs; // Intervalo mínimo entre sondeos
+    private final long intervaloMaximoMs; // Intervalo máximo entre sondeos
+    private final int relistadoCada; // Sondeos sin cambios en el directorio tras los que se lista igualmente
+    private final Path rutaInstantanea; // Archivo donde se guarda la instantánea entre ejecuciones
+    private final CountDownLatch parada = new CountDownLatch(1); // Se libera al detener el sondeo
+    private final Map<String, Entrada> instantanea = new HashMap<>(); // Nombre remoto -> último estado visto
+    private FTPClient clienteFTP; // Conexión que se reutiliza entre sondeos
+    private long marcaDirectorio = -1; // Fecha de modificación del directorio en el último listado
+    private boolean confirmar; // Hay cambios sin confirmar: el siguiente sondeo lista aunque el directorio no cambie
+    private int sondeosSinListar;
+    private long proximoReintento = Long.MAX_VALUE; // Instante (System.nanoTime) del reintento espaciado más próximo
+
+    /**
+     * Estado de un archivo remoto en la instantánea.
+     */
+    private static final class Entrada {
+        final long tamano;
+        final long modificado;
+        boolean aplicada; // El cambio ya se aplicó (o no había nada que aplicar)
+        int intentos; // Intentos fallidos de aplicar el cambio
+        long siguienteIntento; // Instante (System.nanoTime) a partir del cual se vuelve a intentar
+        int ausencias; // Listados seguidos en los que no ha aparecido
+
+        Entrada(long tamano, long modificado, boolean aplicada) {
+            this.tamano = tamano;
+            this.modificado = modificado;
+            this.aplicada = aplicada;
+            this.siguienteIntento = System.nanoTime();
+        }
+    }
+
+    /**
+     * Constructor de SondeoRemoto.
+     * Lee remoto.intervaloMinMs, remoto.intervaloMaxMs, remoto.relistadoCada y remoto.instantanea de la configuración.
+     * @param syncService Instancia de Sincronizacion para aplicar los cambios remotos.
+     */
+    public SondeoRemoto(Sincronizacion syncService) {
+        this.syncService = syncService;
+        this.intervaloMinimoMs = Long.parseLong(config.getProperty("remoto.intervaloMinMs", "2000"));
+        this.intervaloMaximoMs = Math.max(intervaloMinimoMs, Long.parseLong(config.getProperty("remoto.intervaloMaxMs", "60000")));
+        this.relistadoCada = Math.max(1, Integer.parseInt(config.getProperty("remoto.relistadoCada", "30")));
+        String porDefecto = Paths.get(config.getProperty("local.encryptedDir"), "instantanea_remota.txt").toString();
+        this.rutaInstantanea = Paths.get(config.getProperty("remoto.instantanea", porDefecto));
+    }
+
+    @Override
+    public void run() {
+        log.info("remoto.inicio", "Sondeo remoto iniciado para el directorio: {}", REMOTE_DIR);
+        cargarInstantanea();
+        long intervalo = intervaloMinimoMs;
+        try {
+            do {
+                long inicio = System.nanoTime();
+                int cambios;
+                try {
+                    cambios = sondear();
+                } catch (IOException e) {
+                    log.warn("remoto.error", "Error durante el sondeo remoto: {}", e.getMessage());
+                    desconectar(); // Se vuelve a conectar en el siguiente sondeo
+                    cambios = 0;
+                }
+                // Con cambios (o pendientes de confirmar) se vuelve al mínimo; sin ellos, el intervalo se duplica hasta el máximo
+                intervalo = cambios > 0 || confirmar ? intervaloMinimoMs : Math.min(intervaloMaximoMs, intervalo * 2);
+                log.debug("remoto.sondeo", "Sondeo en {} ms con {} cambios; siguiente en {} ms",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio), cambios, intervalo);
+            } while (!parada.await(intervalo, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            desconectar();
+            log.info("remoto.fin", "Hilo del sondeo remoto finalizado.");
+        }
+    }
+
+    /**
+     * Realiza un sondeo: consulta la fecha del directorio y, si ha cambiado, lo lista y compara con la instantánea.
+     * @return El número de cambios detectados.
+     * @throws IOException Si ocurre un error de conexión.
+     */
+    private int sondear() throws IOException {
+        if (clienteFTP == null || !clienteFTP.isConnected()) {
+            clienteFTP = FTPUtil.connectFTP();
+        }
+        long marca = FTPUtil.directoryTimestamp(clienteFTP, REMOTE_DIR);
+        boolean listar = confirmar || marca < 0 || marca != marcaDirectorio || ++sondeosSinListar >= relistadoCada
+                || System.nanoTime() - proximoReintento >= 0;
+        if (!listar) {
+            return 0;
+        }
+        sondeosSinListar = 0;
+        FTPFile[] entradas = FTPUtil.listDirectory(clienteFTP, REMOTE_DIR);
+        marcaDirectorio = marca; // Tomada antes de listar: un cambio durante el listado provoca otro listado
+        int cambios = comparar(entradas);
+        if (cambios > 0) {
+            guardarInstantanea();
+        }
+        return cambios;
+    }
+
+    /**
+     * Compara un listado con la instantánea y aplica los cambios que ya son estables.
+     */
+    private int comparar(FTPFile[] entradas) {
+        Set<String> vistos = new HashSet<>(entradas.length * 2);
+        int cambios = 0;
+        confirmar = false;
+        proximoReintento = Long.MAX_VALUE;
+        long ahora = System.nanoTime();
+        for (FTPFile archivo : entradas) {
+            if (archivo == null || !archivo.isFile() || !archivo.getName().endsWith(".enc")) {
+                continue; // Historial, paquetes y archivos ajenos a la sincronización
+            }
+            String nombre = archivo.getName();
+            long modificado = archivo.getTimestamp() == null ? -1 : archivo.getTimestamp().getTimeInMillis();
+            vistos.add(nombre);
+            Entrada previa = instantanea.get(nombre);
+            if (previa != null && previa.tamano == archivo.getSize() && previa.modificado == modificado) {
+                previa.ausencias = 0;
+                if (!previa.aplicada && ahora - previa.siguienteIntento >= 0) {
+                    // Igual que en el listado anterior: la subida ha terminado y el cambio se puede aplicar
+                    cambios++;
+                    previa.aplicada = aplicarCambio(nombre, previa.tamano);
+                    if (!previa.aplicada) {
+                        reintentar(nombre, previa);
+                    }
+                }
+                if (!previa.aplicada && previa.intentos >= MAX_INTENTOS) {
+                    proximoReintento = Math.min(proximoReintento, previa.siguienteIntento);
+                } else {
+                    confirmar |= !previa.aplicada;
+                }
+                continue;
+            }
+            instantanea.put(nombre, new Entrada(archivo.getSize(), modificado, false));
+            cambios++;
+            confirmar = true;
+        }
+        for (Iterator<Map.Entry<String, Entrada>> it = instantanea.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entrada> entrada = it.next();
+            if (vistos.contains(entrada.getKey())) {
+                continue;
+            }
+            cambios++;
+            if (++entrada.getValue().ausencias < 2) {
+                confirmar = true; // Puede estar moviéndose al historial antes de subir la nueva versión
+                continue;
+            }
+            it.remove();
+            aplicarBorrado(entrada.getKey());
+        }
+        return cambios;
+    }
+
+    /**
+     * Programa el siguiente intento de un cambio que no se ha podido aplicar: en el sondeo siguiente durante los
+     * primeros MAX_INTENTOS y después con una espera que se duplica en cada fallo.
+     */
+    private void reintentar(String nombreRemoto, Entrada entrada) {
+        if (++entrada.intentos < MAX_INTENTOS) {
+            return;
+        }
+        long esperaMs = intervaloMaximoMs << Math.min(entrada.intentos - MAX_INTENTOS, MAX_DUPLICACIONES);
+        entrada.siguienteIntento = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaMs);
+        log.error("remoto.cambio.fallo", "No se pudo aplicar el cambio remoto {} tras {} intentos; se reintentará en {} s",
+                nombreRemoto, entrada.intentos, TimeUnit.MILLISECONDS.toSeconds(esperaMs));
+    }
+
+    /**
+     * Aplica en local un archivo remoto nuevo o modificado.
+     * @return true si el cambio quedó resuelto (aplicado o no había nada que hacer).
+     */
+    private boolean aplicarCambio(String nombreRemoto, long tamano) {
+        try {
+            ManifiestoRemoto manifiesto = ManifiestoRemoto.getManifiesto();
+            Huella registrada = manifiesto.obtener(nombreRemoto);
+            if (registrada != null && VerificacionUtil.verificar(clienteFTP, nombreRemoto, registrada, 1) == VerificacionUtil.Resultado.CORRECTO) {
+                return true; // Es lo último que se subió o descargó desde aquí
+            }
+            String nombre = nombreRemoto.substring(0, nombreRemoto.length() - 4);
+            Path local = Paths.get(LOCAL_DIR, nombre);
+            if (!Files.exists(local)) {
+                return syncService.applyRemoteFile(clienteFTP, nombreRemoto, tamano, local);
+            }
+            Huella enLocal = syncService.localFingerprint(local.toFile());
+            if (registrada != null && registrada.getMd5().equals(enLocal.getMd5())) {
+                return syncService.applyRemoteFile(clienteFTP, nombreRemoto, tamano, local); // Sin cambios en local: gana el servidor
+            }
+            if (VerificacionUtil.verificar(clienteFTP, nombreRemoto, enLocal, 1) == VerificacionUtil.Resultado.CORRECTO) {
+                manifiesto.registrar(nombreRemoto, enLocal); // Ya tienen el mismo contenido
+                return true;
+            }
+            // Ha cambiado en los dos lados: la versión remota se guarda aparte y la local se vuelve a subir
+            Path copia = local.resolveSibling(FileUtil.generateConflictFilename(nombre, LocalDateTime.now().format(FORMATO_CONFLICTO)));
+            log.warn("remoto.conflicto", "Conflicto en {}: la versión remota se guarda como {}", nombre, copia.getFileName());
+            if (!syncService.applyRemoteFile(clienteFTP, nombreRemoto, tamano, copia)) {
+                return false;
+            }
+            syncService.synchronizeFile(local.toFile(), "modified");
+            return true;
+        } catch (Exception e) {
+            log.error("remoto.cambio.error", "Error al aplicar el cambio remoto {}: {}", nombreRemoto, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Aplica en local un borrado remoto confirmado.
+     */
+    private void aplicarBorrado(String nombreRemoto) {
+        ManifiestoRemoto manifiesto = ManifiestoRemoto.getManifiesto();
+        Huella registrada = manifiesto.obtener(nombreRemoto);
+        if (registrada == null) {
+            return; // Lo borró (o lo movió al historial) esta misma instancia
+        }
+        manifiesto.olvidar(nombreRemoto);
+        String nombre = nombreRemoto.substring(0, nombreRemoto.length() - 4);
+        Path local = Paths.get(LOCAL_DIR, nombre);
+        try {
+            if (!Files.exists(local)) {
+                return;
+            }
+            if (syncService.isPackedRemotely(clienteFTP, nombre)) {
+                // Otro equipo lo ha empaquetado y ha retirado la copia individual: no es un borrado
+                log.info("remoto.empaquetado", "{} ya no tiene copia individual en el servidor porque está empaquetado", nombre);
+                return;
+            }
+            if (registrada.getMd5().equals(syncService.localFingerprint(local.toFile()).getMd5())) {
+                syncService.deleteLocalFile(nombre);
+            } else {
+                // Borrado en el servidor pero modificado en local: se conserva la versión local
+                log.warn("remoto.conflicto", "{} se borró en el servidor pero ha cambiado en local; se vuelve a subir", nombre);
+                syncService.synchronizeFile(local.toFile(), "created");
+            }
+        } catch (Exception e) {
+            log.error("remoto.borrado.error", "Error al aplicar el borrado remoto {}: {}", nombreRemoto, e.getMessage());
+        }
+    }
+
+    /**
+     * Carga la instantánea guardada, para detectar los cambios remotos ocurridos mientras la aplicación estaba parada.
+     */
+    private void cargarInstantanea() {
+        if (!Files.exists(rutaInstantanea)) {
+            return;
+        }
+        try {
+            for (String linea : Files.readAllLines(rutaInstantanea, StandardCharsets.UTF_8)) {
+                String[] campos = linea.split("\t");
+                if (campos.length == 3) {
+                    instantanea.put(campos[0], new Entrada(Long.parseLong(campos[1]), Long.parseLong(campos[2]), true));
+                }
+            }
+            log.info("remoto.instantanea", "Instantánea remota cargada: {} archivos", instantanea.size());
+        } catch (IOException | NumberFormatException e) {
+            log.warn("remoto.instantanea.error", "No se pudo cargar la instantánea remota {}: {}", rutaInstantanea, e.getMessage());
+            instantanea.clear();
+        }
+    }
+
+    /**
+     * Guarda las entradas ya aplicadas de la instantánea, reemplazando el archivo de forma atómica.
+     */
+    private void guardarInstantanea() {
+        Path temporal = rutaInstantanea.resolveSibling(rutaInstantanea.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(rutaInstantanea.toAbsolutePath().getParent());
+            try (BufferedWriter salida = Files.newBufferedWriter(temporal, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Entrada> entrada : instantanea.entrySet()) {
+                    Entrada estado = entrada.getValue();
+                    if (estado.aplicada) {
+                        salida.write(entrada.getKey() + "\t" + estado.tamano + "\t" + estado.modificado);
+                        salida.newLine();
+                    }
+                }
+            }
+            Files.move(temporal, rutaInstantanea, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("remoto.instantanea.error", "No se pudo guardar la instantánea remota: {}", e.getMessage());
+        }
+    }
+
+    private void desconectar() {
+        if (clienteFTP != null) {
+            FTPUtil.disconnectFTP(clienteFTP);
+            clienteFTP = null;
+        }
+    }
+
+    /**
+     * Detiene el sondeo remoto. El sondeo en curso termina y no se inician más.
+     */
+    public void detener() {
+        parada.countDown();
+    }
+}
\ No newline at end of file
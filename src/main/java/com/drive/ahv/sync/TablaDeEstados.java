@@ -0,0 +1,172 @@
+package com.drive.ahv.sync;
+
+import java.util.Arrays;
+
+/**
+ * Instantánea compacta del estado de los archivos de un directorio: (tamaño, fecha de modificación, fileKey)
+ * por nombre de archivo.
+ * Es una tabla hash de direccionamiento abierto con sondeo lineal cuya clave es un hash de 64 bits del nombre,
+ * y cuyos valores se guardan en arrays paralelos de long, sin un objeto por entrada.
+ * Lo que no retiene la tabla sí se reserva en cada pasada: el escáner crea un Path, el String del nombre y los
+ * BasicFileAttributes de cada archivo listado, que se descartan al terminar la pasada.
+ * No admite borrados: el escáner construye una tabla nueva en cada pasada y reutiliza la anterior.
+ * No es segura para hilos.
+ */
+final class TablaDeEstados {
+
+    private static final long VACIO = 0L; // Las claves nunca valen 0 (ver hash)
+    private static final int CAPACIDAD_MINIMA = 16;
+
+    private long[] claves;
+    private String[] nombres; // Necesarios para emitir los eventos y resolver colisiones del hash
+    private long[] tamanos;
+    private long[] modificaciones;
+    private long[] fileKeys;
+    private boolean[] vistos; // Marcas de las entradas encontradas en la pasada actual
+    private int mascara;
+    private int tamano; // Número de entradas ocupadas
+
+    TablaDeEstados(int capacidadEsperada) {
+        reservar(capacidadPara(capacidadEsperada));
+    }
+
+    /**
+     * Vacía la tabla para reutilizarla, redimensionándola si la capacidad esperada no cabe.
+     * @param capacidadEsperada Número de entradas que se van a insertar.
+     */
+    void limpiar(int capacidadEsperada) {
+        int capacidad = capacidadPara(capacidadEsperada);
+        if (capacidad > claves.length || capacidad * 4 < claves.length) {
+            reservar(capacidad);
+        } else {
+            Arrays.fill(claves, VACIO);
+            Arrays.fill(nombres, null);
+            Arrays.fill(vistos, false);
+        }
+        tamano = 0;
+    }
+
+    /**
+     * Inserta o sustituye el estado de un archivo.
+     */
+    void poner(String nombre, long tamanoArchivo, long modificacion, long fileKey) {
+        if ((tamano + 1) * 4 > claves.length * 3) {
+            redimensionar(claves.length * 2); // Factor de carga máximo 0,75
+        }
+        long clave = hash(nombre);
+        int i = (int) clave & mascara;
+        while (claves[i] != VACIO && !(claves[i] == clave && nombres[i].equals(nombre))) {
+            i = (i + 1) & mascara;
+        }
+        if (claves[i] == VACIO) {
+            tamano++;
+        }
+        claves[i] = clave;
+        nombres[i] = nombre;
+        tamanos[i] = tamanoArchivo;
+        modificaciones[i] = modificacion;
+        fileKeys[i] = fileKey;
+    }
+
+    /**
+     * Busca un archivo en la tabla.
+     * @param nombre El nombre del archivo.
+     * @return La posición de la entrada, o -1 si no está.
+     */
+    int buscar(String nombre) {
+        long clave = hash(nombre);
+        int i = (int) clave & mascara;
+        while (claves[i] != VACIO) {
+            if (claves[i] == clave && nombres[i].equals(nombre)) {
+                return i;
+            }
+            i = (i + 1) & mascara;
+        }
+        return -1;
+    }
+
+    /**
+     * Indica si la entrada en la posición dada tiene el mismo estado.
+     */
+    boolean igual(int posicion, long tamanoArchivo, long modificacion, long fileKey) {
+        return tamanos[posicion] == tamanoArchivo && modificaciones[posicion] == modificacion && fileKeys[posicion] == fileKey;
+    }
+
+    /**
+     * Copia en esta tabla la entrada de otra tabla, con el mismo estado.
+     */
+    void copiar(TablaDeEstados origen, int posicion) {
+        poner(origen.nombres[posicion], origen.tamanos[posicion], origen.modificaciones[posicion], origen.fileKeys[posicion]);
+    }
+
+    void marcarVisto(int posicion) {
+        vistos[posicion] = true;
+    }
+
+    /**
+     * Número de posiciones de la tabla, para recorrerla con ocupada(i), visto(i) y nombre(i).
+     */
+    int capacidad() {
+        return claves.length;
+    }
+
+    boolean ocupada(int posicion) {
+        return claves[posicion] != VACIO;
+    }
+
+    boolean visto(int posicion) {
+        return vistos[posicion];
+    }
+
+    String nombre(int posicion) {
+        return nombres[posicion];
+    }
+
+    int tamano() {
+        return tamano;
+    }
+
+    /**
+     * Hash FNV-1a de 64 bits del nombre, mezclado para repartir bien los bits bajos.
+     * Nunca devuelve 0, que marca los huecos vacíos.
+     */
+    static long hash(String nombre) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < nombre.length(); i++) {
+            h ^= nombre.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        return h == VACIO ? 1L : h;
+    }
+
+    private static int capacidadPara(int entradas) {
+        int necesaria = Math.max(CAPACIDAD_MINIMA, (int) Math.min(1 << 30, (long) entradas * 4 / 3 + 1));
+        return Integer.highestOneBit(necesaria - 1) << 1;
+    }
+
+    private void reservar(int capacidad) {
+        claves = new long[capacidad];
+        nombres = new String[capacidad];
+        tamanos = new long[capacidad];
+        modificaciones = new long[capacidad];
+        fileKeys = new long[capacidad];
+        vistos = new boolean[capacidad];
+        mascara = capacidad - 1;
+    }
+
+    private void redimensionar(int capacidad) {
+        long[] viejasClaves = claves;
+        String[] viejosNombres = nombres;
+        long[] viejosTamanos = tamanos;
+        long[] viejasModificaciones = modificaciones;
+        long[] viejasFileKeys = fileKeys;
+        reservar(capacidad);
+        tamano = 0;
+        for (int i = 0; i < viejasClaves.length; i++) {
+            if (viejasClaves[i] != VACIO) {
+                poner(viejosNombres[i], viejosTamanos[i], viejasModificaciones[i], viejasFileKeys[i]);
+            }
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.drive.ahv.utils;
 
+import com.drive.ahv.log.Registro;
+
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -9,6 +13,7 @@ import java.nio.charset.StandardCharsets;
  */
 public class AESUtil {
     private static final String AES_ALGORITMO = "AES"; // Algoritmo AES que se va a usar
+    private static final Registro log = Registro.de(AESUtil.class); // Registro de eventos
 
     /**
      * Cifra datos utilizando el algoritmo AES y una clave proporcionada.
@@ -22,10 +27,20 @@ public class AESUtil {
         Cipher cipher = Cipher.getInstance(AES_ALGORITMO); // Obtiene una instancia de Cipher para el algoritmo AES
         cipher.init(Cipher.ENCRYPT_MODE, KeySecreta); // Inicializa el Cipher en modo de cifrado con la clave secreta
         byte[] datoEncriptado = cipher.doFinal(data); // Realiza el cifrado de los datos
-        System.out.println("Datos cifrados exitosamente.");
+        log.debug("aes.cifrado", "Datos cifrados exitosamente.");
         return datoEncriptado;
     }
 
+    /**
+     * Tamaño que tendrán unos datos una vez cifrados con encrypt(): AES con relleno PKCS5 siempre añade
+     * entre 1 y 16 bytes hasta completar un bloque.
+     * @param tamano Tamaño de los datos sin cifrar.
+     * @return Tamaño de los datos cifrados.
+     */
+    public static long tamanoCifrado(long tamano) {
+        return (tamano / 16 + 1) * 16;
+    }
+
     /**
      * Descifra datos cifrados utilizando el algoritmo AES y una clave proporcionada.
      * @param data Los datos cifrados a descifrar en formato byte array.
@@ -38,10 +53,38 @@ public class AESUtil {
         Cipher cipher = Cipher.getInstance(AES_ALGORITMO); // Obtiene una instancia de Cipher para el algoritmo AES
         cipher.init(Cipher.DECRYPT_MODE, llaveSecreta); // Inicializa el Cipher en modo de descifrado con la clave secreta
         byte[] datoEncriptado = cipher.doFinal(data); // Realiza el descifrado de los datos
-        System.out.println("Datos descifrados exitosamente.");
+        log.debug("aes.descifrado", "Datos descifrados exitosamente.");
         return datoEncriptado;
     }
 
+    /**
+     * Descifra un flujo por fragmentos, sin cargar el contenido completo en memoria.
+     * @param entrada Flujo con los datos cifrados. Se lee hasta el final pero no se cierra.
+     * @param salida Flujo donde se escriben los datos descifrados. No se cierra.
+     * @param key La clave de descifrado (debe ser la misma que se usó para cifrar) como String.
+     * @return El número de bytes descifrados.
+     * @throws Exception Si ocurre algún error de lectura, escritura o descifrado.
+     */
+    public static long decrypt(InputStream entrada, OutputStream salida, String key) throws Exception {
+        Cipher cipher = Cipher.getInstance(AES_ALGORITMO); // Obtiene una instancia de Cipher para el algoritmo AES
+        cipher.init(Cipher.DECRYPT_MODE, generateKey(key)); // Inicializa el Cipher en modo de descifrado con la clave secreta
+        byte[] buffer = new byte[64 * 1024];
+        long escritos = 0;
+        int leidos;
+        while ((leidos = entrada.read(buffer)) != -1) {
+            byte[] parte = cipher.update(buffer, 0, leidos); // Descifra los bloques completos recibidos
+            if (parte != null) {
+                salida.write(parte);
+                escritos += parte.length;
+            }
+        }
+        byte[] ultimo = cipher.doFinal(); // Último bloque y comprobación del relleno
+        salida.write(ultimo);
+        escritos += ultimo.length;
+        log.debug("aes.descifrado", "Flujo descifrado exitosamente ({} bytes).", escritos);
+        return escritos;
+    }
+
     /**
      * Genera una SecretKeySpec a partir de un String clave para el algoritmo AES.
      * Valida que la longitud de la clave sea válida (16, 24 o 32 bytes).
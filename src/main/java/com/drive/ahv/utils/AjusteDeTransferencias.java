@@ -0,0 +1,242 @@
+package com.drive.ahv.utils;
+
+import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Ajuste automático de los parámetros de transferencia de FTPClient según el enlace.
+ * Mide el RTT (tiempo de ida y vuelta de un comando de control) y el rendimiento de cada transferencia, y ajusta
+ * dentro de los límites configurados:
+ * <ul>
+ *     <li>el tamaño de los buffers (buffer de FTPClient y buffers de envío y recepción de los sockets de datos),
+ *     que se duplica mientras el rendimiento de un flujo esté limitado por la ventana (rendimiento ≈ buffer / RTT);</li>
+ *     <li>el número de transferencias simultáneas con el servidor: cuando el buffer no es el cuello de botella se prueba
+ *     con una transferencia simultánea más, y se deshace si el rendimiento agregado no mejora;</li>
+ *     <li>el tiempo de espera de datos y el keep-alive de la conexión de control, proporcionales al RTT.</li>
+ * </ul>
+ * Los valores elegidos se publican en el registro de eventos (ajuste.parametros) cada vez que cambian.
+ * Solo hay un servidor configurado (ftp.host), así que el ajuste es único para toda la aplicación.
+ */
+public final class AjusteDeTransferencias {
+
+    private static final Registro log = Registro.de(AjusteDeTransferencias.class); // Registro de eventos
+    private static final long TRANSFERENCIA_MINIMA = 64 * 1024; // Por debajo, una transferencia mide latencia y no rendimiento
+    private static final double ALFA = 0.3; // Peso de cada muestra en las medias móviles
+    private static AjusteDeTransferencias ajuste; // Instancia única (Singleton)
+
+    private final boolean activo;
+    private final int bufferMinimo;
+    private final int bufferMaximo;
+    private final int conexionesMinimas;
+    private final int conexionesMaximas;
+    private final Duration keepAlive; // Intervalo de NOOP en la conexión de control durante transferencias largas
+    private final long timeoutDatosMinimoMs;
+    private final int ventana; // Transferencias medidas entre dos decisiones
+
+    private int buffer; // Tamaño de buffer actual
+    private int conexiones; // Transferencias simultáneas permitidas
+    private int enCurso; // Transferencias en curso
+    private double rttMs = -1; // Media móvil del RTT
+    private double rendimientoFlujo = -1; // Media móvil del rendimiento de una transferencia (bytes/s)
+    private double rendimientoAgregado = -1; // Rendimiento agregado de la última ventana (bytes/s)
+    private boolean conexionAnadida; // La última decisión fue añadir una transferencia simultánea
+    private boolean conexionesFijadas; // Añadir más no mejoró: no se vuelve a probar
+    private long bytesVentana;
+    private final List<long[]> intervalosVentana = new ArrayList<>(); // (inicio, fin) de las transferencias medidas en la ventana
+
+    private AjusteDeTransferencias(Configuracion config) {
+        this.activo = Boolean.parseBoolean(config.getProperty("ajuste.activo", "true"));
+        this.bufferMinimo = Integer.parseInt(config.getProperty("ajuste.bufferMin", "65536"));
+        this.bufferMaximo = Math.max(bufferMinimo, Integer.parseInt(config.getProperty("ajuste.bufferMax", "4194304")));
+        this.conexionesMinimas = Math.max(1, Integer.parseInt(config.getProperty("ajuste.conexionesMin", "1")));
+        this.conexionesMaximas = Math.max(conexionesMinimas, Integer.parseInt(config.getProperty("ajuste.conexionesMax", "4")));
+        this.keepAlive = Duration.ofSeconds(Long.parseLong(config.getProperty("ajuste.keepAliveSeg", "60")));
+        this.timeoutDatosMinimoMs = Long.parseLong(config.getProperty("ajuste.timeoutDatosMs", "30000"));
+        this.ventana = Math.max(1, Integer.parseInt(config.getProperty("ajuste.ventana", "8")));
+        int inicial = Integer.parseInt(config.getProperty("ajuste.bufferInicial", "262144"));
+        this.buffer = Math.max(bufferMinimo, Math.min(bufferMaximo, inicial));
+        this.conexiones = conexionesMinimas;
+    }
+
+    /**
+     * Obtiene la instancia única del ajuste.
+     * @return La instancia única de AjusteDeTransferencias.
+     */
+    public static synchronized AjusteDeTransferencias getAjuste() {
+        if (ajuste == null) {
+            ajuste = new AjusteDeTransferencias(Configuracion.getConfig());
+        }
+        return ajuste;
+    }
+
+    /**
+     * Aplica los parámetros actuales a un cliente antes de conectarlo.
+     * @param clienteFTP Cliente FTP sin conectar.
+     */
+    public synchronized void configurar(FTPClient clienteFTP) {
+        if (!activo) {
+            return;
+        }
+        clienteFTP.setBufferSize(buffer);
+        clienteFTP.setSendDataSocketBufferSize(buffer);
+        clienteFTP.setReceieveDataSocketBufferSize(buffer); // Así se llama el método en commons-net
+        clienteFTP.setControlKeepAliveTimeout(keepAlive);
+        long rtt = rttMs < 0 ? 0 : (long) rttMs;
+        clienteFTP.setControlKeepAliveReplyTimeout(Duration.ofMillis(Math.max(1000, 4 * rtt)));
+        clienteFTP.setDataTimeout(Duration.ofMillis(Math.max(timeoutDatosMinimoMs, 20 * rtt)));
+    }
+
+    /**
+     * Registra el tiempo de ida y vuelta de un comando de control.
+     * @param nanos Duración del comando en nanosegundos.
+     */
+    public synchronized void medirRtt(long nanos) {
+        double muestra = nanos / 1e6;
+        rttMs = rttMs < 0 ? muestra : (1 - ALFA) * rttMs + ALFA * muestra;
+    }
+
+    /**
+     * Espera a que haya hueco para una transferencia más con el servidor y la marca como iniciada.
+     * @return El instante de inicio, que se pasa a terminar().
+     */
+    public synchronized long iniciar() {
+        boolean interrumpido = false;
+        while (enCurso >= conexiones) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrumpido = true; // Se termina la espera igualmente para no perder la transferencia
+                break;
+            }
+        }
+        if (interrumpido) {
+            Thread.currentThread().interrupt();
+        }
+        enCurso++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Marca una transferencia como terminada, registra su rendimiento y, cada cierta cantidad de transferencias,
+     * revisa los parámetros. Las transferencias fallidas y las pequeñas no cuentan ni en bytes ni en tiempo ocupado,
+     * para que el rendimiento agregado dependa del enlace y no de la mezcla de archivos.
+     * @param inicio Valor devuelto por iniciar().
+     * @param bytes Bytes transferidos, o -1 si la transferencia falló.
+     */
+    public synchronized void terminar(long inicio, long bytes) {
+        long ahora = System.nanoTime();
+        enCurso--;
+        notifyAll();
+        if (!activo || bytes < TRANSFERENCIA_MINIMA) {
+            return;
+        }
+        double muestra = bytes * 1e9 / Math.max(1, ahora - inicio);
+        rendimientoFlujo = rendimientoFlujo < 0 ? muestra : (1 - ALFA) * rendimientoFlujo + ALFA * muestra;
+        bytesVentana += bytes;
+        intervalosVentana.add(new long[]{inicio, ahora});
+        if (intervalosVentana.size() >= ventana) {
+            revisar(bytesVentana * 1e9 / Math.max(1, ocupadoVentana()));
+            bytesVentana = 0;
+            intervalosVentana.clear();
+        }
+    }
+
+    /**
+     * Tiempo con al menos una transferencia medida en curso dentro de la ventana (unión de sus intervalos).
+     */
+    private long ocupadoVentana() {
+        intervalosVentana.sort(Comparator.comparingLong(intervalo -> intervalo[0]));
+        long ocupado = 0;
+        long inicio = 0;
+        long fin = 0;
+        boolean hayTramo = false;
+        for (long[] intervalo : intervalosVentana) {
+            if (hayTramo && intervalo[0] <= fin) {
+                fin = Math.max(fin, intervalo[1]);
+                continue;
+            }
+            ocupado += hayTramo ? fin - inicio : 0;
+            inicio = intervalo[0];
+            fin = intervalo[1];
+            hayTramo = true;
+        }
+        return ocupado + (hayTramo ? fin - inicio : 0);
+    }
+
+    /**
+     * Decide los nuevos parámetros con las medidas de la última ventana.
+     * @param agregado Rendimiento agregado de la ventana (bytes/s mientras había transferencias en curso).
+     */
+    private void revisar(double agregado) {
+        int bufferAnterior = buffer;
+        int conexionesAnteriores = conexiones;
+        // Un flujo TCP no puede superar buffer / RTT: si se acerca a ese techo, el buffer es el cuello de botella
+        double techo = rttMs > 0 ? buffer / (rttMs / 1000) : Double.MAX_VALUE;
+        boolean limitadoPorVentana = rendimientoFlujo >= 0.7 * techo;
+
+        if (conexionAnadida) {
+            conexionAnadida = false;
+            if (agregado < 1.1 * rendimientoAgregado) {
+                conexiones--; // La transferencia añadida no aportó: el límite es el enlace
+                conexionesFijadas = true;
+            }
+        } else if (rendimientoAgregado > 0 && agregado < 0.7 * rendimientoAgregado && conexiones > conexionesMinimas) {
+            conexiones--; // El rendimiento cae: posible congestión
+            conexionesFijadas = false;
+        } else if (limitadoPorVentana && buffer < bufferMaximo) {
+            buffer = Math.min(bufferMaximo, buffer * 2);
+        } else if (conexiones < conexionesMaximas && !conexionesFijadas) {
+            // El buffer ya no es el límite (o nunca lo fue, como en una red local donde pesa la latencia por archivo):
+            // se prueba con una transferencia simultánea más y se mantiene solo si mejora el rendimiento agregado
+            conexiones++;
+            conexionAnadida = true;
+        } else if (rendimientoFlujo < 0.25 * techo && buffer > bufferMinimo) {
+            buffer = Math.max(bufferMinimo, buffer / 2); // Buffer muy por encima de lo que usa el enlace
+        }
+        rendimientoAgregado = agregado;
+        if (buffer != bufferAnterior || conexiones != conexionesAnteriores) {
+            notifyAll();
+            log.info("ajuste.parametros", "Ajuste de transferencias: {}", resumen());
+        } else {
+            log.debug("ajuste.parametros", "Ajuste de transferencias sin cambios: {}", resumen());
+        }
+    }
+
+    /**
+     * Resumen de los parámetros elegidos y de las medidas en que se basan.
+     */
+    public synchronized String resumen() {
+        return String.format("buffer=%d KB conexiones=%d rtt=%.1f ms flujo=%.0f KB/s agregado=%.0f KB/s timeoutDatos=%d ms",
+                buffer / 1024, conexiones, rttMs, rendimientoFlujo / 1024, rendimientoAgregado / 1024,
+                Math.max(timeoutDatosMinimoMs, 20 * (long) Math.max(0, rttMs)));
+    }
+
+    public synchronized int getBuffer() {
+        return buffer;
+    }
+
+    public synchronized int getConexiones() {
+        return conexiones;
+    }
+
+    /**
+     * Número máximo de transferencias simultáneas, para dimensionar los hilos que las lanzan.
+     */
+    public int getConexionesMaximas() {
+        return conexionesMaximas;
+    }
+
+    public synchronized double getRttMs() {
+        return rttMs;
+    }
+
+    public synchronized double getRendimiento() {
+        return rendimientoFlujo;
+    }
+}
\ No newline at end of file
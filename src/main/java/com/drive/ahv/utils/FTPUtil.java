@@ -2,10 +2,15 @@ package com.drive.ahv.utils;
 
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
 import org.apache.commons.net.ftp.FTPReply;
 
 import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -16,6 +21,9 @@ import java.io.InputStream;
 public class FTPUtil {
 
     private static final Configuracion config = Configuracion.getConfig(); // Instancia de Configuration para acceder a las propiedades
+    private static final Registro log = Registro.de(FTPUtil.class); // Registro de eventos
+    private static volatile Boolean admiteMlsd; // null hasta saber si el servidor admite MLSD
+    private static volatile Boolean admiteMlst; // null hasta saber si el servidor admite MLST
 
     /**
      * Establece una conexión FTP al servidor configurado.
@@ -24,6 +32,10 @@ public class FTPUtil {
      */
     public static FTPClient connectFTP() throws IOException {
         FTPClient clienteFTP = new FTPClient(); // Crea una nueva instancia de FTPClient
+        AjusteDeTransferencias ajuste = AjusteDeTransferencias.getAjuste();
+        ajuste.configurar(clienteFTP); // Buffers, keep-alive y tiempo de espera según lo medido en el enlace
+        // Tiempo máximo de espera de una respuesta en la conexión de control: un servidor que no responde no bloquea el hilo para siempre
+        clienteFTP.setDefaultTimeout(Integer.parseInt(config.getProperty("ftp.timeoutMs", "60000")));
 
         try {
             String host = config.getProperty("ftp.host"); // Obtiene el host del servidor FTP desde la configuración
@@ -31,7 +43,9 @@ public class FTPUtil {
             String password = config.getProperty("ftp.password"); // Obtiene la contraseña FTP desde la configuración
             String directorioRemoto = config.getProperty("ftp.remoteDir"); // Obtiene el directorio remoto FTP desde la configuración
 
-            clienteFTP.connect(host); // Intenta conectar al servidor FTP
+            int puerto = Integer.parseInt(config.getProperty("ftp.port", "21")); // Obtiene el puerto del servidor FTP (21 por defecto)
+
+            clienteFTP.connect(host, puerto); // Intenta conectar al servidor FTP
             int replyCode = clienteFTP.getReplyCode(); // Obtiene el código de respuesta del servidor tras la conexión
             if (!FTPReply.isPositiveCompletion(replyCode)) {
                 // Si el código de respuesta no indica una conexión exitosa
@@ -47,7 +61,9 @@ public class FTPUtil {
             }
 
             clienteFTP.enterLocalPassiveMode(); // Configura el modo pasivo local para la transferencia de datos (recomendado para la mayoría de firewalls)
+            long inicioTipo = System.nanoTime();
             clienteFTP.setFileType(FTP.BINARY_FILE_TYPE); // Configura el tipo de archivo a binario (para evitar corrupción en transferencias de archivos no texto)
+            ajuste.medirRtt(System.nanoTime() - inicioTipo); // TYPE es un comando de ida y vuelta sin trabajo en el servidor: sirve como medida del RTT
 
             // Crear el directorio remoto si no existe
             if (!directoryExists(clienteFTP, directorioRemoto)) { // Verifica si el directorio remoto ya existe
@@ -55,12 +71,12 @@ public class FTPUtil {
             }
 
             clienteFTP.changeWorkingDirectory(directorioRemoto); // Cambia el directorio de trabajo al directorio remoto configurado
-            System.out.println("Conectado al servidor FTP: " + host); // Mensaje de éxito de conexión
+            log.debug("ftp.conectado", "Conectado al servidor FTP: {}", host); // Mensaje de éxito de conexión
             return clienteFTP; // Devuelve el cliente FTP conectado
 
         } catch (IOException e) {
             // Captura excepciones de IO durante la conexión FTP
-            System.out.println("Error al conectar con el servidor FTP: " + e.getMessage()); // Imprime mensaje de error de conexión
+            log.error("ftp.conexion.error", "Error al conectar con el servidor FTP: {}", e.getMessage()); // Registra mensaje de error de conexión
             throw e; // Relanza la excepción para que se maneje en el nivel superior
         }
     }
@@ -73,18 +89,161 @@ public class FTPUtil {
      * @return true si la subida fue exitosa, false en caso contrario.
      */
     public static boolean uploadFile(FTPClient clienteFTP, String rutaLocal, String nombreArchivoRemoto) {
+        AjusteDeTransferencias ajuste = AjusteDeTransferencias.getAjuste();
+        long inicio = ajuste.iniciar(); // Espera turno si ya hay tantas transferencias como permite el ajuste
+        long bytes = -1;
         try (InputStream input = new FileInputStream(rutaLocal)) {
             // Intenta abrir un InputStream para el archivo local
-            clienteFTP.storeFile(nombreArchivoRemoto, input); // Sube el archivo al servidor FTP
-            System.out.println("Archivo subido: " + rutaLocal + " -> " + nombreArchivoRemoto); // Mensaje de éxito de subida
+            if (!clienteFTP.storeFile(nombreArchivoRemoto, input)) { // Sube el archivo al servidor FTP
+                log.error("ftp.subida.fallo", "El servidor rechazó la subida de {}: {}", nombreArchivoRemoto, clienteFTP.getReplyString()); // Respuesta negativa del servidor
+                return false;
+            }
+            bytes = new File(rutaLocal).length();
+            log.info("ftp.subida", "Archivo subido: {} -> {}", rutaLocal, nombreArchivoRemoto); // Mensaje de éxito de subida
             return true; // Retorna true indicando éxito
         } catch (IOException e) {
             // Captura excepciones de IO durante la subida del archivo
-            System.out.println("Error al subir el archivo " + rutaLocal + ": " + e.getMessage()); // Imprime mensaje de error de subida
+            log.error("ftp.subida.error", "Error al subir el archivo {}: {}", rutaLocal, e.getMessage()); // Registra mensaje de error de subida
             return false; // Retorna false indicando fallo
+        } finally {
+            ajuste.terminar(inicio, bytes); // Registra el rendimiento de la subida
+        }
+    }
+
+    /**
+     * Añade datos al final de un archivo remoto (comando APPE), creándolo si no existe.
+     * @param clienteFTP Cliente FTP conectado.
+     * @param datos Los bytes a añadir.
+     * @param nombreArchivoRemoto Nombre del archivo remoto.
+     * @return true si los datos se añadieron, false en caso contrario.
+     */
+    public static boolean appendFile(FTPClient clienteFTP, byte[] datos, String nombreArchivoRemoto) {
+        AjusteDeTransferencias ajuste = AjusteDeTransferencias.getAjuste();
+        long inicio = ajuste.iniciar();
+        boolean added = false;
+        try (InputStream input = new ByteArrayInputStream(datos)) {
+            added = clienteFTP.appendFile(nombreArchivoRemoto, input); // Añade los datos al archivo remoto
+            if (added) {
+                log.debug("ftp.anexado", "{} bytes añadidos a {}", datos.length, nombreArchivoRemoto);
+            } else {
+                log.warn("ftp.anexado.fallo", "No se pudieron añadir datos a {}: {}", nombreArchivoRemoto, clienteFTP.getReplyString());
+            }
+            return added;
+        } catch (IOException e) {
+            log.error("ftp.anexado.error", "Error al añadir datos a {}: {}", nombreArchivoRemoto, e.getMessage());
+            return false;
+        } finally {
+            ajuste.terminar(inicio, added ? datos.length : -1);
         }
     }
 
+    /**
+     * Descarga un archivo remoto completo en memoria.
+     * @param clienteFTP Cliente FTP conectado.
+     * @param nombreArchivoRemoto Nombre del archivo remoto.
+     * @return El contenido del archivo, o null si no existe o no se pudo descargar.
+     * @throws IOException Si ocurre un error de IO durante la descarga.
+     */
+    public static byte[] downloadBytes(FTPClient clienteFTP, String nombreArchivoRemoto) throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        AjusteDeTransferencias ajuste = AjusteDeTransferencias.getAjuste();
+        long inicio = ajuste.iniciar();
+        boolean descargado = false;
+        try {
+            descargado = clienteFTP.retrieveFile(nombreArchivoRemoto, salida);
+        } finally {
+            ajuste.terminar(inicio, descargado ? salida.size() : -1);
+        }
+        return descargado ? salida.toByteArray() : null;
+    }
+
+    /**
+     * Descarga un rango de bytes de un archivo remoto (comandos REST y RETR), sin transferir el resto del archivo.
+     * @param clienteFTP Cliente FTP conectado.
+     * @param nombreArchivoRemoto Nombre del archivo remoto.
+     * @param offset Posición del primer byte a leer.
+     * @param longitud Número de bytes a leer.
+     * @return Los bytes leídos.
+     * @throws IOException Si el archivo no existe, es más corto de lo esperado u ocurre un error de IO.
+     */
+    public static byte[] downloadRange(FTPClient clienteFTP, String nombreArchivoRemoto, long offset, int longitud) throws IOException {
+        byte[] datos = null;
+        AjusteDeTransferencias ajuste = AjusteDeTransferencias.getAjuste();
+        long inicio = ajuste.iniciar();
+        clienteFTP.setRestartOffset(offset); // REST: el servidor empieza a enviar desde esta posición
+        try (InputStream input = clienteFTP.retrieveFileStream(nombreArchivoRemoto)) {
+            if (input == null) {
+                throw new IOException("No se pudo leer " + nombreArchivoRemoto + ": " + clienteFTP.getReplyString().trim());
+            }
+            datos = input.readNBytes(longitud); // Se cierra la conexión de datos en cuanto se tiene el rango
+        } finally {
+            clienteFTP.setRestartOffset(0);
+            ajuste.terminar(inicio, datos == null ? -1 : datos.length);
+        }
+        // Cerrar antes de tiempo la conexión de datos puede hacer que el servidor responda 426; es esperado
+        clienteFTP.completePendingCommand();
+        if (datos.length != longitud) {
+            throw new IOException("Rango incompleto en " + nombreArchivoRemoto + ": " + datos.length + " de " + longitud + " bytes");
+        }
+        log.debug("ftp.rango", "Leídos {} bytes de {} desde la posición {}", longitud, nombreArchivoRemoto, offset);
+        return datos;
+    }
+
+    /**
+     * Lista el contenido de un directorio remoto con MLSD, que devuelve tamaño y fecha de modificación
+     * en un formato estándar. Si el servidor no admite MLSD, recurre a LIST.
+     * @param clienteFTP Cliente FTP conectado.
+     * @param ruta Ruta del directorio remoto.
+     * @return Las entradas del directorio.
+     * @throws IOException Si ocurre un error de IO o el directorio no se puede listar.
+     */
+    public static FTPFile[] listDirectory(FTPClient clienteFTP, String ruta) throws IOException {
+        if (!Boolean.FALSE.equals(admiteMlsd)) {
+            FTPFile[] entradas = clienteFTP.mlistDir(ruta);
+            if (FTPReply.isPositiveCompletion(clienteFTP.getReplyCode())) {
+                admiteMlsd = true;
+                return entradas;
+            }
+            if (admiteMlsd != null || !esComandoNoAdmitido(clienteFTP.getReplyCode())) {
+                throw new IOException("No se pudo listar " + ruta + ": " + clienteFTP.getReplyString().trim());
+            }
+            admiteMlsd = false;
+            log.info("ftp.mlsd", "El servidor no admite MLSD; se usará LIST");
+        }
+        FTPFile[] entradas = clienteFTP.listFiles(ruta);
+        if (!FTPReply.isPositiveCompletion(clienteFTP.getReplyCode())) {
+            throw new IOException("No se pudo listar " + ruta + ": " + clienteFTP.getReplyString().trim());
+        }
+        return entradas;
+    }
+
+    /**
+     * Obtiene la fecha de modificación de un directorio remoto con MLST, sin listar su contenido.
+     * @param clienteFTP Cliente FTP conectado.
+     * @param ruta Ruta del directorio remoto.
+     * @return La fecha en milisegundos, o -1 si el servidor no la informa.
+     * @throws IOException Si ocurre un error de IO.
+     */
+    public static long directoryTimestamp(FTPClient clienteFTP, String ruta) throws IOException {
+        if (Boolean.FALSE.equals(admiteMlst)) {
+            return -1;
+        }
+        FTPFile directorio = clienteFTP.mlistFile(ruta);
+        if (directorio == null) {
+            if (esComandoNoAdmitido(clienteFTP.getReplyCode())) {
+                admiteMlst = false;
+                log.info("ftp.mlst", "El servidor no admite MLST; los directorios remotos se listarán en cada sondeo");
+            }
+            return -1;
+        }
+        admiteMlst = true;
+        return directorio.getTimestamp() == null ? -1 : directorio.getTimestamp().getTimeInMillis();
+    }
+
+    private static boolean esComandoNoAdmitido(int codigo) {
+        return codigo == FTPReply.UNRECOGNIZED_COMMAND || codigo == FTPReply.COMMAND_NOT_IMPLEMENTED;
+    }
+
     /**
      * Elimina un archivo remoto del servidor FTP.
      * @param clienteFTP Cliente FTP conectado.
@@ -96,14 +255,14 @@ public class FTPUtil {
             boolean deleted = clienteFTP.deleteFile(nombreArchivoRemoto); // Intenta borrar el archivo remoto
             if (deleted) {
                 // Si el borrado fue exitoso
-                System.out.println("Archivo eliminado: " + nombreArchivoRemoto); // Mensaje de éxito de borrado
+                log.info("ftp.borrado", "Archivo eliminado: {}", nombreArchivoRemoto); // Mensaje de éxito de borrado
             } else {
-                System.out.println("Archivo no encontrado o no pudo ser eliminado: " + nombreArchivoRemoto); // Mensaje si el archivo no se encontró o no se pudo borrar
+                log.warn("ftp.borrado.fallo", "Archivo no encontrado o no pudo ser eliminado: {}", nombreArchivoRemoto); // Mensaje si el archivo no se encontró o no se pudo borrar
             }
             return deleted; // Retorna true si el borrado fue exitoso, false en caso contrario
         } catch (IOException e) {
             // Captura excepciones de IO durante el borrado del archivo
-            System.out.println("Error al eliminar el archivo " + nombreArchivoRemoto + ": " + e.getMessage()); // Imprime mensaje de error de borrado
+            log.error("ftp.borrado.error", "Error al eliminar el archivo {}: {}", nombreArchivoRemoto, e.getMessage()); // Registra mensaje de error de borrado
             return false; // Retorna false indicando fallo
         }
     }
@@ -140,14 +299,14 @@ public class FTPUtil {
             boolean created = FTPReply.isPositiveCompletion(reply); // Verifica si el código de respuesta indica éxito
             if (created) {
                 // Si la creación fue exitosa
-                System.out.println("Directorio creado: " + ruta); // Mensaje de éxito de creación de directorio
+                log.info("ftp.directorio", "Directorio creado: {}", ruta); // Mensaje de éxito de creación de directorio
             } else {
-                System.out.println("El directorio no pudo ser creado: " + ruta); // Mensaje si no se pudo crear el directorio
+                log.warn("ftp.directorio.fallo", "El directorio no pudo ser creado: {}", ruta); // Mensaje si no se pudo crear el directorio
             }
             return created; // Retorna true si la creación fue exitosa, false en caso contrario
         } catch (IOException e) {
             // Captura excepciones de IO durante la creación del directorio
-            System.out.println("Error al crear el directorio " + ruta + ": " + e.getMessage()); // Imprime mensaje de error de creación de directorio
+            log.error("ftp.directorio.error", "Error al crear el directorio {}: {}", ruta, e.getMessage()); // Registra mensaje de error de creación de directorio
             return false; // Retorna false indicando fallo
         }
     }
@@ -162,11 +321,11 @@ public class FTPUtil {
                 // Si el cliente FTP está conectado
                 clienteFTP.logout(); // Cierra la sesión FTP (logout)
                 clienteFTP.disconnect(); // Desconecta del servidor FTP
-                System.out.println("Desconectado del servidor FTP."); // Mensaje de desconexión
+                log.debug("ftp.desconectado", "Desconectado del servidor FTP."); // Mensaje de desconexión
             }
         } catch (IOException e) {
             // Captura excepciones de IO durante la desconexión
-            System.out.println("Error al desconectar del servidor FTP: " + e.getMessage()); // Imprime mensaje de error de desconexión
+            log.warn("ftp.desconexion.error", "Error al desconectar del servidor FTP: {}", e.getMessage()); // Registra mensaje de error de desconexión
         }
     }
 }
\ No newline at end of file
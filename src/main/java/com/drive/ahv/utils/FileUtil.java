@@ -1,5 +1,7 @@
 package com.drive.ahv.utils;
 
+import com.drive.ahv.log.Registro;
+
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -8,6 +10,9 @@ import java.nio.file.Paths;
  * Clase utilitaria para operaciones relacionadas con archivos.
  */
 public class FileUtil {
+
+    private static final Registro log = Registro.de(FileUtil.class); // Registro de eventos
+
     /**
      * Determina si un archivo es probablemente un archivo de texto.
      * Intenta leer el archivo como texto; si tiene éxito sin errores de codificación, se considera un archivo de texto.
@@ -21,11 +26,11 @@ public class FileUtil {
             return true; // Si no hay excepción, se considera un archivo de texto
         } catch (IOException e) {
             // Captura IOException si hay un error al leer el archivo
-            System.out.println("Error al leer el archivo " + rutaArchivo + ": " + e.getMessage()); // Imprime mensaje de error de lectura
+            log.warn("archivo.lectura.error", "Error al leer el archivo {}: {}", rutaArchivo, e.getMessage()); // Registra mensaje de error de lectura
             return false; // Si hay un error al leer, no es un archivo de texto
         } catch (Exception e) {
             // Captura otras excepciones generales
-            System.out.println("Error al procesar el archivo " + rutaArchivo + ": " + e.getMessage()); // Imprime mensaje de error de procesamiento
+            log.warn("archivo.proceso.error", "Error al procesar el archivo {}: {}", rutaArchivo, e.getMessage()); // Registra mensaje de error de procesamiento
             return false; // Si hay un error de procesamiento, no es un archivo de texto
         }
     }
@@ -43,4 +48,18 @@ public class FileUtil {
         String extension = (dotIndex == -1) ? "" : NombreArchivo.substring(dotIndex); // Extensión: desde el punto hasta el final, o cadena vacía si no hay punto
         return baseName + "_v" + version + extension; // Combina nombre base, "_v[versión]" y la extensión para el nombre versionado
     }
+
+    /**
+     * Genera el nombre de la copia que se guarda cuando un archivo cambia a la vez en local y en el servidor.
+     * Ejemplo: "documento.txt" con etiqueta "20250101-120000" -> "documento_conflicto_20250101-120000.txt".
+     * @param NombreArchivo El nombre de archivo base.
+     * @param etiqueta Texto que distingue la copia (normalmente, la fecha y hora).
+     * @return El nombre de la copia en conflicto.
+     */
+    public static String generateConflictFilename(String NombreArchivo, String etiqueta) {
+        int dotIndex = NombreArchivo.lastIndexOf('.');
+        String baseName = (dotIndex == -1) ? NombreArchivo : NombreArchivo.substring(0, dotIndex);
+        String extension = (dotIndex == -1) ? "" : NombreArchivo.substring(dotIndex);
+        return baseName + "_conflicto_" + etiqueta + extension;
+    }
 }
\ No newline at end of file
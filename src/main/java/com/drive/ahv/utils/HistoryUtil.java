@@ -4,6 +4,7 @@ import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPReply;
 
 import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
 
 import java.io.IOException;
 
@@ -14,6 +15,7 @@ import java.io.IOException;
 public class HistoryUtil {
 
     private static final Configuracion config = Configuracion.getConfig(); // Instancia de Configuration para acceder a las propiedades
+    private static final Registro log = Registro.de(HistoryUtil.class); // Registro de eventos
 
     /**
      * Crea el directorio de historial en el servidor FTP si no existe.
@@ -30,21 +32,21 @@ public class HistoryUtil {
         try {
             // Verifica si el directorio de historial ya existe. Si existe, termina el método.
             if (FTPUtil.directoryExists(clienteFTP, nombreDirectorioHistory)) {
-                System.out.println("El directorio de historial ya existe: " + directorioHistory);
+                log.debug("historial.directorio", "El directorio de historial ya existe: {}", directorioHistory);
                 return true;
             }
             // Solo crea el directorio si no existe.
             int replyCode = clienteFTP.mkd(nombreDirectorioHistory);
             if (FTPReply.isPositiveCompletion(replyCode)) {
-                System.out.println("Directorio de historial creado exitosamente: " + directorioHistory);
+                log.info("historial.directorio", "Directorio de historial creado exitosamente: {}", directorioHistory);
                 return true;
             } else {
-                System.out.println("Fallo al crear el directorio de historial: " + directorioHistory);
+                log.warn("historial.directorio.fallo", "Fallo al crear el directorio de historial: {}", directorioHistory);
                 return false;
             }
 
         } catch (IOException e) {
-            System.out.println("Error al crear el directorio de historial: " + e.getMessage());
+            log.error("historial.directorio.error", "Error al crear el directorio de historial: {}", e.getMessage());
             return false;
         }
     }
@@ -66,7 +68,7 @@ public class HistoryUtil {
             if (!FTPUtil.directoryExists(clienteFTP, historyDirName)) {
                 // Si no existe, intenta crearlo
                 if (!createHistoryDirectory(clienteFTP)) {
-                    System.out.println("Fallo al crear o encontrar el directorio de historial, no se puede mover el archivo."); // Mensaje de error
+                    log.warn("historial.movimiento.fallo", "Fallo al crear o encontrar el directorio de historial, no se puede mover el archivo: {}", nombreArchivo); // Mensaje de error
                     return false;
                 }
             }
@@ -74,14 +76,14 @@ public class HistoryUtil {
             // Renombra el archivo al directorio de historial
             boolean renamed = clienteFTP.rename(nombreArchivo, destinationPath);
             if (renamed) {
-                System.out.println("Archivo movido al historial: " + nombreArchivo + " -> " + destinationPath);
+                log.info("historial.movimiento", "Archivo movido al historial: {} -> {}", nombreArchivo, destinationPath);
                 return true; 
             } else {
-                System.out.println("Fallo al mover el archivo al historial: " + nombreArchivo + " -> " + destinationPath);
+                log.warn("historial.movimiento.fallo", "Fallo al mover el archivo al historial: {} -> {}", nombreArchivo, destinationPath);
                 return false;
             }
         } catch (IOException e) {
-            System.out.println("Error al mover el archivo al historial: " + e.getMessage());
+            log.error("historial.movimiento.error", "Error al mover el archivo al historial: {}", e.getMessage());
             return false;
         }
     }
@@ -0,0 +1,189 @@
+package com.drive.ahv.utils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.CRC32;
+
+/**
+ * Huella de un objeto remoto tomada en el momento de subirlo: tamaño, CRC32 y MD5 del contenido completo
+ * (los algoritmos que suelen calcular los servidores con XCRC, XMD5, MD5 o HASH) y el CRC32 de cada bloque,
+ * para poder verificar muestras con lecturas por rango sin descargar el objeto.
+ * El número de bloques está acotado, de modo que la huella ocupa poco aunque el objeto sea grande.
+ */
+public final class Huella {
+
+    private static final int BLOQUE_MINIMO = 64 * 1024; // Tamaño mínimo de bloque
+    private static final int MAX_BLOQUES = 64; // Número máximo de bloques por objeto
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final long tamano;
+    private final long crc32;
+    private final String md5; // Hexadecimal en minúsculas
+    private final int tamBloque;
+    private final int[] crcBloques;
+
+    private Huella(long tamano, long crc32, String md5, int tamBloque, int[] crcBloques) {
+        this.tamano = tamano;
+        this.crc32 = crc32;
+        this.md5 = md5;
+        this.tamBloque = tamBloque;
+        this.crcBloques = crcBloques;
+    }
+
+    /**
+     * Calcula la huella de un contenido en una sola pasada.
+     * @param datos El contenido tal y como se sube al servidor (cifrado).
+     * @return La huella del contenido.
+     */
+    public static Huella de(byte[] datos) {
+        Calculo calculo = new Calculo(datos.length);
+        calculo.actualizar(datos, 0, datos.length);
+        return calculo.terminar();
+    }
+
+    /**
+     * Cálculo incremental de una huella cuyo tamaño se conoce de antemano, para tomarla mientras el
+     * contenido pasa por un flujo (por ejemplo, una descarga) sin tenerlo entero en memoria.
+     */
+    public static final class Calculo {
+
+        private final long tamano;
+        private final int tamBloque;
+        private final int[] crcBloques;
+        private final CRC32 total = new CRC32();
+        private final CRC32 bloque = new CRC32();
+        private final MessageDigest md5 = md5();
+        private long leidos; // Bytes procesados hasta ahora
+
+        /**
+         * @param tamano Tamaño total del contenido.
+         */
+        public Calculo(long tamano) {
+            int tamBloque = BLOQUE_MINIMO;
+            while ((long) tamBloque * MAX_BLOQUES < tamano) {
+                tamBloque <<= 1;
+            }
+            this.tamano = tamano;
+            this.tamBloque = tamBloque;
+            this.crcBloques = new int[(int) ((tamano + tamBloque - 1) / tamBloque)];
+        }
+
+        /**
+         * Añade un fragmento del contenido, en orden.
+         */
+        public void actualizar(byte[] datos, int desde, int longitud) {
+            if (leidos + longitud > tamano) {
+                throw new IllegalStateException("El contenido supera el tamaño anunciado: " + tamano);
+            }
+            total.update(datos, desde, longitud);
+            md5.update(datos, desde, longitud);
+            while (longitud > 0) {
+                int enBloque = (int) (leidos % tamBloque);
+                int parte = Math.min(longitud, tamBloque - enBloque);
+                bloque.update(datos, desde, parte);
+                leidos += parte;
+                desde += parte;
+                longitud -= parte;
+                if (leidos % tamBloque == 0 || leidos == tamano) {
+                    crcBloques[(int) ((leidos - 1) / tamBloque)] = (int) bloque.getValue();
+                    bloque.reset();
+                }
+            }
+        }
+
+        /**
+         * Devuelve la huella del contenido procesado.
+         * @throws IllegalStateException Si no se ha procesado el tamaño anunciado.
+         */
+        public Huella terminar() {
+            if (leidos != tamano) {
+                throw new IllegalStateException("Contenido incompleto: " + leidos + " de " + tamano + " bytes");
+            }
+            return new Huella(tamano, total.getValue(), HEX.formatHex(md5.digest()), tamBloque, crcBloques);
+        }
+    }
+
+    /**
+     * Calcula el CRC32 de un bloque leído del servidor, para compararlo con crcBloque(i).
+     */
+    public static int crc(byte[] datos) {
+        CRC32 crc = new CRC32();
+        crc.update(datos);
+        return (int) crc.getValue();
+    }
+
+    public long getTamano() {
+        return tamano;
+    }
+
+    public long getCrc32() {
+        return crc32;
+    }
+
+    public String getMd5() {
+        return md5;
+    }
+
+    public int getTamBloque() {
+        return tamBloque;
+    }
+
+    public int getNumBloques() {
+        return crcBloques.length;
+    }
+
+    public int crcBloque(int indice) {
+        return crcBloques[indice];
+    }
+
+    /**
+     * Longitud del bloque indicado (el último puede ser más corto).
+     */
+    public int longitudBloque(int indice) {
+        return (int) Math.min(tamBloque, tamano - (long) indice * tamBloque);
+    }
+
+    /**
+     * Serializa la huella en una línea de texto: tamaño, crc32, md5, tamaño de bloque y crc de los bloques,
+     * separados por espacios.
+     */
+    public String serializar() {
+        StringBuilder linea = new StringBuilder(64 + crcBloques.length * 9);
+        linea.append(tamano).append(' ').append(Long.toHexString(crc32)).append(' ').append(md5)
+                .append(' ').append(tamBloque).append(' ');
+        for (int i = 0; i < crcBloques.length; i++) {
+            if (i > 0) {
+                linea.append(',');
+            }
+            linea.append(Integer.toHexString(crcBloques[i]));
+        }
+        return linea.toString();
+    }
+
+    /**
+     * Reconstruye una huella serializada con serializar().
+     * @throws IllegalArgumentException Si el texto no tiene el formato esperado.
+     */
+    public static Huella deserializar(String texto) {
+        String[] campos = texto.trim().split(" ", -1);
+        if (campos.length != 5) {
+            throw new IllegalArgumentException("Huella mal formada: " + texto);
+        }
+        String[] bloques = campos[4].isEmpty() ? new String[0] : campos[4].split(",");
+        int[] crcBloques = new int[bloques.length];
+        for (int i = 0; i < bloques.length; i++) {
+            crcBloques[i] = Integer.parseUnsignedInt(bloques[i], 16);
+        }
+        return new Huella(Long.parseLong(campos[0]), Long.parseLong(campos[1], 16), campos[2],
+                Integer.parseInt(campos[3]), crcBloques);
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 no disponible", e); // Todas las JVM deben incluir MD5
+        }
+    }
+}
\ No newline at end of file
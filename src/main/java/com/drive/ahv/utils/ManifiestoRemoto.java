@@ -0,0 +1,154 @@
+package com.drive.ahv.utils;
+
+import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Manifiesto local de los objetos subidos al servidor FTP y de su huella (tamaño y hashes).
+ * Se guarda como un diario de solo anexado ("+" registra, "-" olvida) que se reescribe completo
+ * cuando la mayoría de sus líneas están obsoletas.
+ * La ruta se configura con verificacion.manifiesto (por defecto, manifiesto.txt en local.encryptedDir).
+ */
+public class ManifiestoRemoto {
+
+    private static ManifiestoRemoto manifiesto; // Instancia única (Singleton)
+    private static final Registro log = Registro.de(ManifiestoRemoto.class); // Registro de eventos
+
+    private final Path ruta; // Archivo del diario
+    private final Map<String, Huella> objetos = new HashMap<>(); // Nombre remoto (relativo a ftp.remoteDir) -> huella
+    private BufferedWriter diario;
+    private int lineas; // Líneas que contiene el diario
+
+    private ManifiestoRemoto(Path ruta) {
+        this.ruta = ruta;
+        try {
+            Files.createDirectories(ruta.toAbsolutePath().getParent());
+            if (Files.exists(ruta)) {
+                for (String linea : Files.readAllLines(ruta, StandardCharsets.UTF_8)) {
+                    aplicar(linea);
+                    lineas++;
+                }
+            }
+            reescribir(); // Empieza siempre con un diario compacto
+            log.info("manifiesto.cargado", "Manifiesto remoto cargado: {} objetos", objetos.size());
+        } catch (IOException e) {
+            log.error("manifiesto.error", "Error al cargar el manifiesto remoto {}: {}", ruta, e.getMessage());
+        }
+    }
+
+    /**
+     * Obtiene la instancia única del manifiesto, cargándolo la primera vez.
+     * @return La instancia única de ManifiestoRemoto.
+     */
+    public static synchronized ManifiestoRemoto getManifiesto() {
+        if (manifiesto == null) {
+            Configuracion config = Configuracion.getConfig();
+            String porDefecto = Paths.get(config.getProperty("local.encryptedDir"), "manifiesto.txt").toString();
+            manifiesto = new ManifiestoRemoto(Paths.get(config.getProperty("verificacion.manifiesto", porDefecto)));
+        }
+        return manifiesto;
+    }
+
+    /**
+     * Registra (o sustituye) la huella de un objeto recién subido.
+     * @param nombreRemoto Nombre del objeto, relativo a ftp.remoteDir.
+     * @param huella Huella del contenido subido.
+     */
+    public synchronized void registrar(String nombreRemoto, Huella huella) {
+        objetos.put(nombreRemoto, huella);
+        escribir("+\t" + nombreRemoto + "\t" + huella.serializar());
+    }
+
+    /**
+     * Olvida un objeto que se ha borrado del servidor.
+     * @param nombreRemoto Nombre del objeto, relativo a ftp.remoteDir.
+     */
+    public synchronized void olvidar(String nombreRemoto) {
+        if (objetos.remove(nombreRemoto) != null) {
+            escribir("-\t" + nombreRemoto);
+        }
+    }
+
+    /**
+     * Actualiza el nombre de un objeto que se ha movido en el servidor (por ejemplo, al historial).
+     */
+    public synchronized void renombrar(String origen, String destino) {
+        Huella huella = objetos.remove(origen);
+        if (huella != null) {
+            escribir("-\t" + origen);
+            registrar(destino, huella);
+        }
+    }
+
+    public synchronized Huella obtener(String nombreRemoto) {
+        return objetos.get(nombreRemoto);
+    }
+
+    /**
+     * Copia de los nombres registrados, para recorrerlos sin bloquear el manifiesto.
+     */
+    public synchronized List<String> nombres() {
+        return new ArrayList<>(objetos.keySet());
+    }
+
+    private void aplicar(String linea) {
+        String[] campos = linea.split("\t");
+        try {
+            if (campos.length == 3 && "+".equals(campos[0])) {
+                objetos.put(campos[1], Huella.deserializar(campos[2]));
+            } else if (campos.length == 2 && "-".equals(campos[0])) {
+                objetos.remove(campos[1]);
+            }
+        } catch (IllegalArgumentException e) {
+            log.warn("manifiesto.linea", "Línea del manifiesto ignorada: {}", linea);
+        }
+    }
+
+    private void escribir(String linea) {
+        if (diario == null) {
+            return; // El manifiesto no se pudo abrir; se sigue trabajando en memoria
+        }
+        try {
+            diario.write(linea);
+            diario.newLine();
+            diario.flush();
+            if (++lineas > 1000 && lineas > 2 * objetos.size()) {
+                reescribir();
+            }
+        } catch (IOException e) {
+            log.error("manifiesto.error", "Error al escribir el manifiesto remoto: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reescribe el diario con una línea por objeto y lo sustituye de forma atómica.
+     */
+    private void reescribir() throws IOException {
+        if (diario != null) {
+            diario.close();
+        }
+        Path temporal = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+        try (BufferedWriter salida = Files.newBufferedWriter(temporal, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Huella> objeto : objetos.entrySet()) {
+                salida.write("+\t" + objeto.getKey() + "\t" + objeto.getValue().serializar());
+                salida.newLine();
+            }
+        }
+        Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lineas = objetos.size();
+        diario = Files.newBufferedWriter(ruta, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+}
\ No newline at end of file
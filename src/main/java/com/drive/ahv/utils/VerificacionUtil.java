@@ -0,0 +1,244 @@
+package com.drive.ahv.utils;
+
+import com.drive.ahv.log.Registro;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Clase utilitaria para verificar la integridad de los objetos remotos sin descargarlos completos.
+ * Compara con la huella tomada al subir: primero el tamaño (SIZE), después el hash calculado por el servidor
+ * (HASH, XMD5, MD5 o XCRC, según lo que admita) y, si el servidor no calcula hashes, el CRC de algunos bloques
+ * elegidos al azar leídos por rango.
+ */
+public class VerificacionUtil {
+
+    private static final Registro log = Registro.de(VerificacionUtil.class); // Registro de eventos
+    private static final Pattern HEX_MD5 = Pattern.compile("[0-9a-fA-F]{32}");
+    private static final Pattern HEX_CRC = Pattern.compile("[0-9a-fA-F]{1,8}");
+    private static final Random random = new Random();
+
+    /**
+     * Resultado de una verificación.
+     */
+    public enum Resultado {
+        CORRECTO, // Coincide con la huella
+        AUSENTE, // El objeto no existe en el servidor
+        TAMANO_DISTINTO, // SIZE no coincide (subida truncada)
+        HASH_DISTINTO, // El hash del servidor no coincide
+        MUESTRA_DISTINTA, // Algún bloque leído por rango no coincide
+        ERROR // No se pudo verificar (error de conexión)
+    }
+
+    /**
+     * Comando de hash que admite el servidor. Se detecta una vez con FEAT (o probando con un objeto que existe)
+     * y se reutiliza, ya que todas las conexiones van al mismo servidor.
+     */
+    private enum ComandoHash { HASH_MD5, HASH_CRC32, XMD5, MD5, XCRC, NINGUNO }
+
+    private static volatile ComandoHash comandoHash; // null hasta que se detecta
+
+    /**
+     * Comprobación rápida tras una subida: compara el tamaño remoto (SIZE) con el de la huella.
+     * @param clienteFTP Cliente FTP conectado.
+     * @param nombreRemoto Nombre del objeto remoto.
+     * @param huella Huella del contenido subido.
+     * @return El resultado de la comprobación.
+     */
+    public static Resultado verificarTamano(FTPClient clienteFTP, String nombreRemoto, Huella huella) {
+        try {
+            String tamano = clienteFTP.getSize(nombreRemoto);
+            if (tamano == null) {
+                return FTPReply.isNegativePermanent(clienteFTP.getReplyCode()) ? Resultado.AUSENTE : Resultado.ERROR;
+            }
+            return Long.parseLong(tamano.trim()) == huella.getTamano() ? Resultado.CORRECTO : Resultado.TAMANO_DISTINTO;
+        } catch (IOException | NumberFormatException e) {
+            log.warn("verificacion.error", "No se pudo comprobar el tamaño de {}: {}", nombreRemoto, e.getMessage());
+            return Resultado.ERROR;
+        }
+    }
+
+    /**
+     * Verificación completa: tamaño, hash del servidor si lo admite y, si no, bloques muestreados.
+     * @param clienteFTP Cliente FTP conectado.
+     * @param nombreRemoto Nombre del objeto remoto.
+     * @param huella Huella del contenido subido.
+     * @param muestras Número de bloques a leer por rango cuando el servidor no calcula hashes.
+     * @return El resultado de la verificación.
+     */
+    public static Resultado verificar(FTPClient clienteFTP, String nombreRemoto, Huella huella, int muestras) {
+        Resultado resultado = verificarTamano(clienteFTP, nombreRemoto, huella);
+        if (resultado != Resultado.CORRECTO) {
+            return resultado;
+        }
+        try {
+            Boolean hashCorrecto = compararHashServidor(clienteFTP, nombreRemoto, huella);
+            if (hashCorrecto != null) {
+                return hashCorrecto ? Resultado.CORRECTO : Resultado.HASH_DISTINTO;
+            }
+            return verificarMuestras(clienteFTP, nombreRemoto, huella, muestras);
+        } catch (IOException e) {
+            log.warn("verificacion.error", "No se pudo verificar {}: {}", nombreRemoto, e.getMessage());
+            return Resultado.ERROR;
+        }
+    }
+
+    /**
+     * Máximo de bytes que leen las muestras de un objeto, para que el depurador pueda limitar su ritmo.
+     */
+    public static long bytesMuestra(Huella huella, int muestras) {
+        return (long) Math.min(muestras, huella.getNumBloques()) * huella.getTamBloque();
+    }
+
+    /**
+     * Pide el hash al servidor y lo compara con la huella.
+     * @return true o false según coincida, o null si el servidor no calcula hashes.
+     */
+    private static Boolean compararHashServidor(FTPClient clienteFTP, String nombreRemoto, Huella huella) throws IOException {
+        ComandoHash comando = detectarComandoHash(clienteFTP, nombreRemoto);
+        switch (comando) {
+            case HASH_MD5:
+            case XMD5:
+            case MD5: {
+                String hash = campoHash(comando, enviar(clienteFTP, comando, nombreRemoto));
+                if (hash == null) {
+                    return null; // Respuesta no reconocida: se recurre a las muestras
+                }
+                return hash.toLowerCase(Locale.ROOT).equals(huella.getMd5());
+            }
+            case HASH_CRC32:
+            case XCRC: {
+                String hash = campoHash(comando, enviar(clienteFTP, comando, nombreRemoto));
+                if (hash == null) {
+                    return null;
+                }
+                return Long.parseLong(hash, 16) == huella.getCrc32();
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Toma de la respuesta solo el campo del hash, en la posición que documenta cada comando, para no confundirlo
+     * con una parte del nombre del archivo, del rango o del algoritmo:
+     * HASH responde "213 algoritmo inicio-fin hash nombre", XMD5 y XCRC "250 hash" y MD5 "251 nombre hash".
+     * @return El hash, o null si la respuesta no tiene ese formato o el campo no es un hash válido.
+     */
+    private static String campoHash(ComandoHash comando, String respuesta) {
+        if (respuesta == null || respuesta.length() < 4) {
+            return null;
+        }
+        String[] campos = respuesta.lines().findFirst().orElse("").substring(4).trim().split("\\s+");
+        String hash;
+        switch (comando) {
+            case HASH_MD5:
+            case HASH_CRC32:
+                hash = campos.length >= 3 ? campos[2] : null;
+                break;
+            case MD5:
+                hash = campos.length >= 2 ? campos[campos.length - 1] : null;
+                break;
+            default:
+                hash = campos[0];
+        }
+        Pattern formato = comando == ComandoHash.HASH_CRC32 || comando == ComandoHash.XCRC ? HEX_CRC : HEX_MD5;
+        return hash != null && formato.matcher(hash).matches() ? hash : null;
+    }
+
+    /**
+     * Envía el comando de hash y devuelve la respuesta si es positiva.
+     */
+    private static String enviar(FTPClient clienteFTP, ComandoHash comando, String nombreRemoto) throws IOException {
+        int codigo;
+        switch (comando) {
+            case HASH_MD5:
+            case HASH_CRC32:
+                clienteFTP.sendCommand("OPTS", comando == ComandoHash.HASH_MD5 ? "HASH MD5" : "HASH CRC32");
+                codigo = clienteFTP.sendCommand("HASH", nombreRemoto);
+                break;
+            default:
+                codigo = clienteFTP.sendCommand(comando.name(), nombreRemoto);
+        }
+        return FTPReply.isPositiveCompletion(codigo) ? clienteFTP.getReplyString().trim() : null;
+    }
+
+    /**
+     * Lee por rango algunos bloques al azar y compara su CRC con la huella.
+     */
+    private static Resultado verificarMuestras(FTPClient clienteFTP, String nombreRemoto, Huella huella, int muestras) throws IOException {
+        int bloques = huella.getNumBloques();
+        for (int i = 0; i < Math.min(muestras, bloques); i++) {
+            // La primera muestra es siempre el último bloque, donde se nota una subida truncada o rellenada
+            int bloque = i == 0 ? bloques - 1 : random.nextInt(bloques);
+            byte[] datos = FTPUtil.downloadRange(clienteFTP, nombreRemoto, (long) bloque * huella.getTamBloque(), huella.longitudBloque(bloque));
+            if (Huella.crc(datos) != huella.crcBloque(bloque)) {
+                return Resultado.MUESTRA_DISTINTA;
+            }
+        }
+        return Resultado.CORRECTO;
+    }
+
+    /**
+     * Fecha de modificación de un objeto remoto (MDTM).
+     * @param clienteFTP Cliente FTP conectado.
+     * @param nombreRemoto Nombre del objeto remoto.
+     * @return La fecha en milisegundos, o -1 si el servidor no la devuelve.
+     * @throws IOException Si ocurre un error de conexión.
+     */
+    public static long fechaModificacion(FTPClient clienteFTP, String nombreRemoto) throws IOException {
+        Calendar fecha = clienteFTP.mdtmCalendar(nombreRemoto);
+        return fecha == null ? -1 : fecha.getTimeInMillis();
+    }
+
+    /**
+     * Detecta el comando de hash del servidor: primero por FEAT y, si no anuncia ninguno, probando XMD5 y XCRC
+     * con un objeto que existe (su tamaño ya se ha comprobado), de modo que un 5xx significa que el comando no se admite.
+     * Si la prueba no es concluyente (4xx, respuesta sin hash) no se guarda el resultado y se vuelve a probar la próxima vez.
+     */
+    private static ComandoHash detectarComandoHash(FTPClient clienteFTP, String nombreRemoto) throws IOException {
+        ComandoHash detectado = comandoHash;
+        if (detectado != null) {
+            return detectado;
+        }
+        detectado = ComandoHash.NINGUNO;
+        if (clienteFTP.features()) {
+            String hash = clienteFTP.featureValue("HASH");
+            if (hash != null && hash.toUpperCase(Locale.ROOT).contains("MD5")) {
+                detectado = ComandoHash.HASH_MD5;
+            } else if (hash != null && hash.toUpperCase(Locale.ROOT).contains("CRC32")) {
+                detectado = ComandoHash.HASH_CRC32;
+            } else if (clienteFTP.hasFeature("XMD5")) {
+                detectado = ComandoHash.XMD5;
+            } else if (clienteFTP.hasFeature("MD5")) {
+                detectado = ComandoHash.MD5;
+            } else if (clienteFTP.hasFeature("XCRC")) {
+                detectado = ComandoHash.XCRC;
+            }
+        }
+        if (detectado == ComandoHash.NINGUNO) {
+            // Algunos servidores admiten XMD5/XCRC sin anunciarlos
+            boolean concluyente = true;
+            for (ComandoHash prueba : new ComandoHash[]{ComandoHash.XMD5, ComandoHash.XCRC}) {
+                int codigo = clienteFTP.sendCommand(prueba.name(), nombreRemoto);
+                if (FTPReply.isPositiveCompletion(codigo) && campoHash(prueba, clienteFTP.getReplyString().trim()) != null) {
+                    detectado = prueba;
+                    break;
+                }
+                concluyente &= FTPReply.isNegativePermanent(codigo); // 5xx: no lo admite
+            }
+            if (detectado == ComandoHash.NINGUNO && !concluyente) {
+                log.debug("verificacion.hash", "Prueba de comandos de hash no concluyente con {}", nombreRemoto);
+                return detectado;
+            }
+        }
+        comandoHash = detectado;
+        log.info("verificacion.hash", "Comando de hash del servidor: {}", detectado);
+        return detectado;
+    }
+}
\ No newline at end of file
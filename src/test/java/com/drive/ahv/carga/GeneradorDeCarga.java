@@ -0,0 +1,211 @@
+package com.drive.ahv.carga;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Genera actividad sintética sobre el directorio local: crea, modifica, renombra y borra archivos
+ * a un ritmo y con una distribución de tamaños configurables.
+ * Por cada operación registra qué estado remoto se espera, para que la prueba de carga mida
+ * cuánto tarda en reflejarse en el servidor FTP.
+ */
+public class GeneradorDeCarga implements Runnable {
+
+    /**
+     * Estado remoto esperado para un archivo tras una operación local.
+     */
+    public static class Expectativa {
+        final String nombreArchivo; // Nombre del archivo local (sin .enc)
+        final boolean presente; // true si se espera que exista en remoto, false si se espera que desaparezca
+        final long instanteMillis; // Hora de la operación, para comparar con la fecha de modificación remota
+        final long instanteNanos; // Instante de la operación, para medir la latencia
+
+        Expectativa(String nombreArchivo, boolean presente) {
+            this.nombreArchivo = nombreArchivo;
+            this.presente = presente;
+            this.instanteMillis = System.currentTimeMillis();
+            this.instanteNanos = System.nanoTime();
+        }
+    }
+
+    private final Path directorio; // Directorio local donde se genera la carga
+    private final double operacionesPorSegundo; // Ritmo objetivo de operaciones
+    private final long duracionNanos; // Duración de la generación de carga
+    private final int[] pesos; // Pesos de crear, modificar, renombrar y borrar
+    private final int tamMin; // Tamaño mínimo de archivo en bytes
+    private final int tamMax; // Tamaño máximo de archivo en bytes
+    private final boolean tamLogaritmico; // true para distribución log-uniforme de tamaños, false para uniforme
+    private final Random random;
+
+    private final Map<String, Expectativa> pendientes = new ConcurrentHashMap<>(); // Última expectativa sin confirmar por archivo
+    private final List<String> vivos = new ArrayList<>(); // Archivos que existen ahora en el directorio local
+    private final AtomicLong operaciones = new AtomicLong(); // Operaciones locales realizadas
+    private final AtomicLong bytesEscritos = new AtomicLong(); // Bytes escritos en el directorio local
+    private final AtomicLong sustituidas = new AtomicLong(); // Expectativas reemplazadas por otra operación antes de confirmarse
+    private final AtomicLong errores = new AtomicLong(); // Operaciones locales que fallaron
+    private long secuencia; // Contador para generar nombres únicos
+    private volatile boolean terminado; // true cuando la generación de carga ha finalizado
+
+    /**
+     * Constructor de GeneradorDeCarga.
+     * @param directorio Directorio local donde se genera la carga.
+     * @param operacionesPorSegundo Ritmo objetivo de operaciones por segundo.
+     * @param duracionSegundos Duración de la generación de carga en segundos.
+     * @param pesos Pesos relativos de crear, modificar, renombrar y borrar (en ese orden).
+     * @param tamMin Tamaño mínimo de archivo en bytes.
+     * @param tamMax Tamaño máximo de archivo en bytes.
+     * @param tamLogaritmico true para distribución log-uniforme de tamaños, false para uniforme.
+     * @param semilla Semilla del generador aleatorio, para poder repetir una ejecución.
+     */
+    public GeneradorDeCarga(Path directorio, double operacionesPorSegundo, long duracionSegundos, int[] pesos,
+                            int tamMin, int tamMax, boolean tamLogaritmico, long semilla) {
+        if (pesos.length != 4) {
+            throw new IllegalArgumentException("Se necesitan 4 pesos: crear, modificar, renombrar y borrar");
+        }
+        this.directorio = directorio;
+        this.operacionesPorSegundo = operacionesPorSegundo;
+        this.duracionNanos = TimeUnit.SECONDS.toNanos(duracionSegundos);
+        this.pesos = pesos.clone();
+        this.tamMin = Math.max(1, tamMin);
+        this.tamMax = Math.max(this.tamMin, tamMax);
+        this.tamLogaritmico = tamLogaritmico;
+        this.random = new Random(semilla);
+    }
+
+    /**
+     * Genera operaciones al ritmo configurado hasta que se agota la duración o se interrumpe el hilo.
+     */
+    @Override
+    public void run() {
+        long intervaloNanos = (long) (TimeUnit.SECONDS.toNanos(1) / operacionesPorSegundo);
+        long inicio = System.nanoTime();
+        long siguiente = inicio;
+        try {
+            while (System.nanoTime() - inicio < duracionNanos && !Thread.currentThread().isInterrupted()) {
+                long espera = siguiente - System.nanoTime();
+                if (espera > 0) {
+                    TimeUnit.NANOSECONDS.sleep(espera);
+                }
+                siguiente += intervaloNanos; // Ritmo fijo: si una operación se retrasa, las siguientes recuperan el retraso
+                try {
+                    ejecutarOperacion();
+                    operaciones.incrementAndGet();
+                } catch (IOException e) {
+                    errores.incrementAndGet();
+                    System.err.println("Error al generar carga: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            terminado = true;
+        }
+    }
+
+    /**
+     * Elige una operación según los pesos configurados y la ejecuta sobre el directorio local.
+     * @throws IOException Si falla la operación sobre el sistema de archivos.
+     */
+    private void ejecutarOperacion() throws IOException {
+        int total = pesos[0] + pesos[1] + pesos[2] + pesos[3];
+        int tirada = random.nextInt(total);
+        if (vivos.isEmpty() || tirada < pesos[0]) {
+            crear();
+        } else if (tirada < pesos[0] + pesos[1]) {
+            modificar();
+        } else if (tirada < pesos[0] + pesos[1] + pesos[2]) {
+            renombrar();
+        } else {
+            borrar();
+        }
+    }
+
+    private void crear() throws IOException {
+        String nombre = String.format("carga_%08d.bin", secuencia++);
+        escribir(nombre);
+        vivos.add(nombre);
+    }
+
+    private void modificar() throws IOException {
+        escribir(vivos.get(random.nextInt(vivos.size())));
+    }
+
+    private void renombrar() throws IOException {
+        int indice = random.nextInt(vivos.size());
+        String origen = vivos.get(indice);
+        String destino = String.format("carga_%08d.bin", secuencia++);
+        Files.move(directorio.resolve(origen), directorio.resolve(destino));
+        vivos.set(indice, destino);
+        esperar(new Expectativa(origen, false));
+        esperar(new Expectativa(destino, true));
+    }
+
+    private void borrar() throws IOException {
+        // Intercambia con el último para borrar de la lista sin desplazar elementos
+        int indice = random.nextInt(vivos.size());
+        String nombre = vivos.get(indice);
+        vivos.set(indice, vivos.get(vivos.size() - 1));
+        vivos.remove(vivos.size() - 1);
+        Files.delete(directorio.resolve(nombre));
+        esperar(new Expectativa(nombre, false));
+    }
+
+    private void escribir(String nombre) throws IOException {
+        byte[] contenido = new byte[siguienteTamano()];
+        random.nextBytes(contenido);
+        esperar(new Expectativa(nombre, true)); // Se registra antes de escribir: la latencia incluye la propia escritura
+        Files.write(directorio.resolve(nombre), contenido);
+        bytesEscritos.addAndGet(contenido.length);
+    }
+
+    private int siguienteTamano() {
+        if (tamLogaritmico) {
+            double logMin = Math.log(tamMin);
+            double logMax = Math.log(tamMax);
+            return (int) Math.round(Math.exp(logMin + random.nextDouble() * (logMax - logMin)));
+        }
+        return tamMin + random.nextInt(tamMax - tamMin + 1);
+    }
+
+    private void esperar(Expectativa expectativa) {
+        if (pendientes.put(expectativa.nombreArchivo, expectativa) != null) {
+            sustituidas.incrementAndGet(); // La operación anterior sobre el mismo archivo queda cubierta por esta
+        }
+    }
+
+    /**
+     * Obtiene las expectativas pendientes de confirmar, indexadas por nombre de archivo.
+     * @return El mapa concurrente de expectativas pendientes.
+     */
+    public Map<String, Expectativa> getPendientes() {
+        return pendientes;
+    }
+
+    public long getOperaciones() {
+        return operaciones.get();
+    }
+
+    public long getBytesEscritos() {
+        return bytesEscritos.get();
+    }
+
+    public long getSustituidas() {
+        return sustituidas.get();
+    }
+
+    public long getErrores() {
+        return errores.get();
+    }
+
+    public boolean isTerminado() {
+        return terminado;
+    }
+}
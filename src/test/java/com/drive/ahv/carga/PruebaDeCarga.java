@@ -0,0 +1,270 @@
+package com.drive.ahv.carga;
+
+import com.drive.ahv.config.Configuracion;
+import com.drive.ahv.log.Registro;
+import com.drive.ahv.sync.DetectorDeCambios;
+import com.drive.ahv.sync.Sincronizacion;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Prueba de carga y de resistencia (soak) de la sincronización.
+ * Levanta un servidor FTP embebido sobre un directorio temporal, apunta LOCAL_DIR a otro directorio temporal,
+ * arranca el detector de cambios configurado (monitor.modo) y Sincronizacion y genera actividad con GeneradorDeCarga.
+ * Observa el directorio del servidor para medir la latencia evento-remoto, el rendimiento, los eventos perdidos
+ * y el uso de heap, y termina con código 1 si se supera algún umbral configurado.
+ *
+ * Los parámetros se leen de la configuración (propiedades del sistema o config.properties) y también se pueden
+ * pasar como argumentos clave=valor, por ejemplo: carga.duracionSeg=600 carga.opsPorSegundo=50
+ */
+public class PruebaDeCarga {
+
+    private static final long NANOS_POR_MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public static void main(String[] args) throws Exception {
+        for (String arg : args) {
+            int igual = arg.indexOf('=');
+            if (igual > 0) {
+                System.setProperty(arg.substring(0, igual), arg.substring(igual + 1)); // Los argumentos sobrescriben la configuración
+            }
+        }
+        Configuracion config = Configuracion.getConfig();
+
+        long duracionSeg = Long.parseLong(config.getProperty("carga.duracionSeg", "60"));
+        double opsPorSegundo = Double.parseDouble(config.getProperty("carga.opsPorSegundo", "20"));
+        int[] pesos = {
+                Integer.parseInt(config.getProperty("carga.pesoCrear", "40")),
+                Integer.parseInt(config.getProperty("carga.pesoModificar", "30")),
+                Integer.parseInt(config.getProperty("carga.pesoRenombrar", "15")),
+                Integer.parseInt(config.getProperty("carga.pesoBorrar", "15"))
+        };
+        int tamMin = Integer.parseInt(config.getProperty("carga.tamMin", "256"));
+        int tamMax = Integer.parseInt(config.getProperty("carga.tamMax", "1048576"));
+        boolean tamLogaritmico = "logaritmica".equalsIgnoreCase(config.getProperty("carga.distribucionTam", "logaritmica"));
+        long semilla = Long.parseLong(config.getProperty("carga.semilla", "42"));
+        long esperaFinalSeg = Long.parseLong(config.getProperty("carga.esperaFinalSeg", "30"));
+        long intervaloObservacionMs = Long.parseLong(config.getProperty("carga.intervaloObservacionMs", "20"));
+        long intervaloInformeSeg = Long.parseLong(config.getProperty("carga.intervaloInformeSeg", "10"));
+        int maxConexiones = Integer.parseInt(config.getProperty("carga.ftp.maxConexiones", "10000"));
+        boolean conservarDirectorios = Boolean.parseBoolean(config.getProperty("carga.conservarDirectorios", "false"));
+
+        // Umbrales: 0 desactiva la comprobación (en carga.maxPerdidos, un valor negativo)
+        long maxP99Ms = Long.parseLong(config.getProperty("carga.maxP99Ms", "5000"));
+        long maxPerdidos = Long.parseLong(config.getProperty("carga.maxPerdidos", "0"));
+        double minRendimiento = Double.parseDouble(config.getProperty("carga.minRendimiento", "0"));
+        long maxHeapMb = Long.parseLong(config.getProperty("carga.maxHeapMb", "512"));
+
+        Path base = Files.createTempDirectory("driveahv-carga");
+        Path local = Files.createDirectories(base.resolve("local"));
+        Path raizFtp = Files.createDirectories(base.resolve("ftp"));
+        Path remoto = Files.createDirectories(raizFtp.resolve("sync"));
+
+        ServidorFTPEmbebido servidor = new ServidorFTPEmbebido(raizFtp, "carga", "carga", maxConexiones);
+        int puerto = servidor.iniciar();
+
+        // Debe hacerse antes de cargar Sincronizacion y los detectores de cambios, que leen la configuración en su inicialización
+        System.setProperty("ftp.host", "127.0.0.1");
+        System.setProperty("ftp.port", String.valueOf(puerto));
+        System.setProperty("ftp.user", "carga");
+        System.setProperty("ftp.password", "carga");
+        System.setProperty("ftp.remoteDir", "/sync");
+        System.setProperty("history.dir", "historial");
+        System.setProperty("local.dir", local.toString());
+        System.setProperty("local.downloadDir", base.resolve("descargas").toString());
+        System.setProperty("local.encryptedDir", base.resolve("encriptados").toString());
+
+        Sincronizacion sincronizacion = new Sincronizacion();
+        sincronizacion.initialSynchronize();
+        DetectorDeCambios monitor = DetectorDeCambios.crear(sincronizacion);
+        Thread hiloMonitor = new Thread(monitor, "monitor-carga");
+        hiloMonitor.start();
+
+        GeneradorDeCarga generador = new GeneradorDeCarga(local, opsPorSegundo, duracionSeg, pesos,
+                tamMin, tamMax, tamLogaritmico, semilla);
+        Thread hiloGenerador = new Thread(generador, "generador-carga");
+
+        MemoryMXBean memoria = ManagementFactory.getMemoryMXBean();
+        List<Long> latenciasNanos = new ArrayList<>();
+        Set<String> subidos = new HashSet<>(); // Archivos cuya subida se ha confirmado alguna vez
+        long noVerificables = 0;
+        long heapMaximo = 0;
+        int conexionesMaximas = 0;
+        long inicio = System.nanoTime();
+        long ultimaConfirmacion = inicio;
+        long siguienteInforme = inicio + TimeUnit.SECONDS.toNanos(intervaloInformeSeg);
+        long limite = Long.MAX_VALUE;
+
+        System.out.println("Prueba de carga iniciada: " + opsPorSegundo + " ops/s durante " + duracionSeg + " s en " + local);
+        hiloGenerador.start();
+
+        // Bucle de observación: confirma expectativas contra el directorio del servidor FTP
+        while (true) {
+            Map<String, GeneradorDeCarga.Expectativa> pendientes = generador.getPendientes();
+            int sinSubida = 0; // Borrados de archivos que nunca se vieron subidos
+            for (GeneradorDeCarga.Expectativa e : pendientes.values()) {
+                if (!e.presente && !subidos.contains(e.nombreArchivo)) {
+                    sinSubida++; // Se decide al final: su subida aún podría estar en curso
+                } else if (seRefleja(e, remoto, subidos) && pendientes.remove(e.nombreArchivo, e)) {
+                    long ahora = System.nanoTime();
+                    latenciasNanos.add(ahora - e.instanteNanos);
+                    ultimaConfirmacion = ahora;
+                }
+            }
+
+            heapMaximo = Math.max(heapMaximo, memoria.getHeapMemoryUsage().getUsed());
+            conexionesMaximas = Math.max(conexionesMaximas, servidor.getConexionesActivas());
+
+            long ahora = System.nanoTime();
+            if (ahora >= siguienteInforme) {
+                System.out.printf("[carga] %d s: %d operaciones, %d confirmadas, %d pendientes, heap %d MB, %d conexiones FTP%n",
+                        TimeUnit.NANOSECONDS.toSeconds(ahora - inicio), generador.getOperaciones(), latenciasNanos.size(),
+                        pendientes.size(), memoria.getHeapMemoryUsage().getUsed() >> 20, servidor.getConexionesActivas());
+                siguienteInforme += TimeUnit.SECONDS.toNanos(intervaloInformeSeg);
+            }
+
+            if (generador.isTerminado()) {
+                if (limite == Long.MAX_VALUE) {
+                    limite = ahora + TimeUnit.SECONDS.toNanos(esperaFinalSeg); // Tiempo de gracia para que se vacíe la cola
+                }
+                if (pendientes.size() == sinSubida || ahora >= limite) {
+                    break;
+                }
+            }
+            Thread.sleep(intervaloObservacionMs);
+        }
+        // Un archivo creado y borrado antes de confirmarse su subida no deja nada que comprobar en el servidor,
+        // salvo que su .enc haya quedado en el directorio remoto: en ese caso el borrado se ha perdido
+        for (GeneradorDeCarga.Expectativa e : generador.getPendientes().values()) {
+            if (!e.presente && !subidos.contains(e.nombreArchivo) && !Files.exists(remoto.resolve(e.nombreArchivo + ".enc"))
+                    && generador.getPendientes().remove(e.nombreArchivo, e)) {
+                noVerificables++;
+            }
+        }
+
+        monitor.stopMonitor();
+        hiloMonitor.interrupt();
+        hiloMonitor.join(TimeUnit.SECONDS.toMillis(10));
+        int conexionesFinales = servidor.getConexionesActivas();
+        servidor.detener();
+
+        // Informe
+        long[] latencias = latenciasNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        long perdidos = generador.getPendientes().size();
+        double segundos = Math.max(1, ultimaConfirmacion - inicio) / 1e9;
+        double rendimiento = latencias.length / segundos;
+        long p99Ms = percentil(latencias, 99) / NANOS_POR_MS;
+
+        System.gc();
+        long heapRetenido = memoria.getHeapMemoryUsage().getUsed();
+
+        Registro.vaciar(5_000); // Que los eventos pendientes no se mezclen con el informe
+        System.out.println("===== Resultado de la prueba de carga =====");
+        System.out.printf("Operaciones locales:      %d (%d errores, %d MB escritos)%n",
+                generador.getOperaciones(), generador.getErrores(), generador.getBytesEscritos() >> 20);
+        System.out.printf("Cambios confirmados:      %d (%d sustituidos por una operación posterior)%n",
+                latencias.length, generador.getSustituidas());
+        System.out.printf("Eventos perdidos:         %d%n", perdidos);
+        System.out.printf("Borrados sin verificar:   %d (archivos borrados antes de confirmarse su subida)%n", noVerificables);
+        System.out.printf("Latencia evento-remoto:   p50 %d ms, p90 %d ms, p99 %d ms, máx %d ms%n",
+                percentil(latencias, 50) / NANOS_POR_MS, percentil(latencias, 90) / NANOS_POR_MS, p99Ms,
+                (latencias.length == 0 ? 0 : latencias[latencias.length - 1]) / NANOS_POR_MS);
+        System.out.printf("Rendimiento:              %.1f cambios/s, %.2f MB/s escritos%n",
+                rendimiento, generador.getBytesEscritos() / segundos / (1 << 20));
+        System.out.printf("Heap:                     máximo %d MB, retenido tras GC %d MB%n", heapMaximo >> 20, heapRetenido >> 20);
+        System.out.printf("Conexiones FTP abiertas:  máximo %d, al terminar %d%n", conexionesMaximas, conexionesFinales);
+
+        List<String> fallos = new ArrayList<>();
+        if (maxP99Ms > 0 && p99Ms > maxP99Ms) {
+            fallos.add("latencia p99 " + p99Ms + " ms > " + maxP99Ms + " ms");
+        }
+        if (maxPerdidos >= 0 && perdidos > maxPerdidos) {
+            fallos.add("eventos perdidos " + perdidos + " > " + maxPerdidos);
+        }
+        if (minRendimiento > 0 && rendimiento < minRendimiento) {
+            fallos.add(String.format("rendimiento %.1f cambios/s < %.1f", rendimiento, minRendimiento));
+        }
+        if (maxHeapMb > 0 && (heapMaximo >> 20) > maxHeapMb) {
+            fallos.add("heap máximo " + (heapMaximo >> 20) + " MB > " + maxHeapMb + " MB");
+        }
+
+        if (!conservarDirectorios) {
+            borrarDirectorio(base);
+        } else {
+            System.out.println("Directorios de la prueba conservados en: " + base);
+        }
+
+        if (fallos.isEmpty()) {
+            System.out.println("Prueba de carga SUPERADA.");
+            System.exit(0); // Termina también los hilos que hayan quedado de conexiones FTP sin cerrar
+        } else {
+            System.err.println("Prueba de carga FALLIDA: " + String.join("; ", fallos));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Comprueba si el estado esperado ya se refleja en el directorio del servidor FTP.
+     * Un archivo presente se da por sincronizado si su .enc está en el directorio remoto con fecha de modificación
+     * posterior a la operación local (una copia en el historial no cuenta). Un archivo borrado se da por sincronizado
+     * si se llegó a ver subido y su .enc ya no está en el directorio remoto.
+     * @param subidos Archivos cuya subida se ha confirmado alguna vez; se actualiza aquí.
+     */
+    private static boolean seRefleja(GeneradorDeCarga.Expectativa e, Path remoto, Set<String> subidos) {
+        String nombreRemoto = e.nombreArchivo + ".enc";
+        Path enRemoto = remoto.resolve(nombreRemoto);
+        if (e.presente) {
+            if (fechaModificacion(enRemoto) < e.instanteMillis) {
+                return false;
+            }
+            subidos.add(e.nombreArchivo);
+            return true;
+        }
+        if (Files.exists(enRemoto) || !subidos.contains(e.nombreArchivo)) {
+            return false;
+        }
+        subidos.remove(e.nombreArchivo);
+        return true;
+    }
+
+    /**
+     * Fecha de modificación de un archivo en milisegundos, o -1 si no existe.
+     */
+    private static long fechaModificacion(Path archivo) {
+        try {
+            return Files.getLastModifiedTime(archivo).toMillis();
+        } catch (IOException e) {
+            return -1; // No existe todavía
+        }
+    }
+
+    /**
+     * Calcula un percentil por el método del rango más cercano sobre un array ordenado.
+     */
+    private static long percentil(long[] ordenado, int percentil) {
+        if (ordenado.length == 0) {
+            return 0;
+        }
+        int indice = (int) Math.ceil(percentil / 100.0 * ordenado.length) - 1;
+        return ordenado[Math.max(0, Math.min(indice, ordenado.length - 1))];
+    }
+
+    private static void borrarDirectorio(Path directorio) {
+        try (Stream<Path> rutas = Files.walk(directorio)) {
+            rutas.sorted(Comparator.reverseOrder()).forEach(ruta -> ruta.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("No se pudo borrar el directorio de la prueba " + directorio + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.drive.ahv.carga;
+
+import org.apache.ftpserver.ConnectionConfigFactory;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.listener.Listener;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.ClearTextPasswordEncryptor;
+import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Servidor FTP embebido (Apache FtpServer) para las pruebas de carga.
+ * Sirve un directorio local con un único usuario con permisos de escritura,
+ * de forma que el contenido remoto se puede observar directamente en disco.
+ */
+public class ServidorFTPEmbebido {
+
+    private final Path raiz; // Directorio local que hace de raíz del servidor FTP
+    private final String usuario; // Usuario con el que se conectará la aplicación
+    private final String password; // Contraseña del usuario
+    private final int maxConexiones; // Número máximo de conexiones simultáneas aceptadas
+    private FtpServer servidor; // Servidor FTP en ejecución
+    private Listener listener; // Listener del servidor, para conocer el puerto asignado
+
+    /**
+     * Constructor de ServidorFTPEmbebido.
+     * @param raiz Directorio local que hará de raíz del servidor FTP.
+     * @param usuario Nombre del usuario FTP.
+     * @param password Contraseña del usuario FTP.
+     * @param maxConexiones Número máximo de conexiones simultáneas aceptadas.
+     */
+    public ServidorFTPEmbebido(Path raiz, String usuario, String password, int maxConexiones) {
+        this.raiz = raiz;
+        this.usuario = usuario;
+        this.password = password;
+        this.maxConexiones = maxConexiones;
+    }
+
+    /**
+     * Arranca el servidor en un puerto libre de localhost.
+     * @return El puerto en el que escucha el servidor.
+     * @throws FtpException Si el servidor no puede arrancar.
+     */
+    public int iniciar() throws FtpException {
+        FtpServerFactory fabricaServidor = new FtpServerFactory();
+
+        ListenerFactory fabricaListener = new ListenerFactory();
+        fabricaListener.setServerAddress("127.0.0.1");
+        fabricaListener.setPort(0); // Puerto 0: el sistema operativo asigna uno libre
+        listener = fabricaListener.createListener();
+        fabricaServidor.addListener("default", listener);
+
+        ConnectionConfigFactory fabricaConexiones = new ConnectionConfigFactory();
+        fabricaConexiones.setMaxLogins(maxConexiones);
+        fabricaConexiones.setAnonymousLoginEnabled(false);
+        fabricaServidor.setConnectionConfig(fabricaConexiones.createConnectionConfig());
+
+        PropertiesUserManagerFactory fabricaUsuarios = new PropertiesUserManagerFactory();
+        fabricaUsuarios.setPasswordEncryptor(new ClearTextPasswordEncryptor());
+        UserManager gestorUsuarios = fabricaUsuarios.createUserManager();
+        BaseUser user = new BaseUser();
+        user.setName(usuario);
+        user.setPassword(password);
+        user.setHomeDirectory(raiz.toAbsolutePath().toString());
+        List<Authority> permisos = List.of(new WritePermission(), new ConcurrentLoginPermission(0, 0)); // 0 = sin límite por usuario
+        user.setAuthorities(permisos);
+        gestorUsuarios.save(user);
+        fabricaServidor.setUserManager(gestorUsuarios);
+
+        servidor = fabricaServidor.createServer();
+        servidor.start();
+        System.out.println("Servidor FTP embebido iniciado en el puerto " + listener.getPort() + " con raíz: " + raiz);
+        return listener.getPort();
+    }
+
+    /**
+     * Obtiene el número de sesiones FTP abiertas en este momento.
+     * @return El número de sesiones activas en el listener.
+     */
+    public int getConexionesActivas() {
+        return listener == null ? 0 : listener.getActiveSessions().size();
+    }
+
+    /**
+     * Detiene el servidor FTP si está en ejecución.
+     */
+    public void detener() {
+        if (servidor != null && !servidor.isStopped()) {
+            servidor.stop();
+            System.out.println("Servidor FTP embebido detenido.");
+        }
+    }
+}